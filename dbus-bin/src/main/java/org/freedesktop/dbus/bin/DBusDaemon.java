@@ -22,6 +22,7 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -35,6 +36,7 @@ import org.freedesktop.dbus.BusAddress;
 import org.freedesktop.dbus.DBusSignal;
 import org.freedesktop.dbus.DirectConnection;
 import org.freedesktop.dbus.Error;
+import org.freedesktop.dbus.InMemoryTransport;
 import org.freedesktop.dbus.Marshalling;
 import org.freedesktop.dbus.Message;
 import org.freedesktop.dbus.MessageReader;
@@ -80,6 +82,11 @@ public class DBusDaemon extends Thread {
             mout = new MessageWriter(sock.getOutputStream());
         }
 
+        public Connstruct(final MessageReader min, final MessageWriter mout) {
+            this.min = min;
+            this.mout = mout;
+        }
+
         @Override
         public String toString() {
             return null == unique ? ":?-?" : unique;
@@ -598,6 +605,7 @@ public class DBusDaemon extends Thread {
     private final MagicMap<Message, WeakReference<Connstruct>> localqueue = new MagicMap<>("local");
     private final List<Connstruct> sigrecips = new Vector<>();
     private boolean _run = true;
+    private InMemoryTransport.Listener inmemory = null;
     private int next_unique = 0;
     private final Object unique_lock = new Object();
     DBusServer dbus_server = new DBusServer();
@@ -764,6 +772,10 @@ public class DBusDaemon extends Thread {
                 if (null != c.tsock) {
                     c.tsock.close();
                 }
+                if (null == c.usock && null == c.tsock) {
+                    c.min.close();
+                    c.mout.close();
+                }
             } catch (final IOException IOe) {
             }
             synchronized (names) {
@@ -813,6 +825,84 @@ public class DBusDaemon extends Thread {
         LOGGER.debug("exit");
     }
 
+    /**
+     * Add a connection which is not a socket, such as one end of an in-memory connection.
+     */
+    public void addConnection(final MessageReader min, final MessageWriter mout) {
+        LOGGER.debug("enter");
+        final Connstruct c = new Connstruct(min, mout);
+        final Reader r = new Reader(c);
+        r.setDaemon(true);
+        synchronized (conns) {
+            conns.put(c, r);
+        }
+        r.start();
+        LOGGER.debug("exit");
+    }
+
+    /**
+     * Run a bus inside this JVM, which peers in the same JVM reach on the address inmem:name=... without
+     * any sockets. All threads of the bus are daemon threads.
+     *
+     * @param name The name of the bus in the address.
+     * @return The running daemon.
+     * @throws IOException If there already is an in-memory listener on the name.
+     */
+    public static DBusDaemon startInMemory(final String name) throws IOException {
+        LOGGER.debug("enter");
+        final InMemoryTransport.Listener l = InMemoryTransport.listen(name);
+        final DBusDaemon d = new DBusDaemon();
+        d.inmemory = l;
+        d.setDaemon(true);
+        d.sender.setDaemon(true);
+        d.dbus_server.setDaemon(true);
+        d.start();
+        d.sender.start();
+        d.dbus_server.start();
+
+        // accept new connections
+        final Thread acceptor = new Thread("InMemoryAcceptor") {
+            @Override
+            public void run() {
+                while (d._run) {
+                    try {
+                        final InMemoryTransport.Endpoint e = l.accept();
+                        d.addConnection(e.min, e.mout);
+                    } catch (final IOException IOe) {
+                        if (AbstractConnection.EXCEPTION_DEBUG) {
+                            LOGGER.error("Exception", IOe);
+                        }
+                        break;
+                    }
+                }
+                l.close();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.debug("exit");
+        return d;
+    }
+
+    /**
+     * Stop a bus started with {@link #startInMemory(String)}. Its name is freed and all peers are disconnected.
+     */
+    public void stopInMemory() {
+        LOGGER.debug("enter");
+        _stopRunning();
+        if (null != inmemory) {
+            inmemory.close();
+        }
+        final List<Connstruct> cs;
+        synchronized (conns) {
+            cs = new ArrayList<>(conns.keySet());
+        }
+        for (final Connstruct c : cs) {
+            removeConnection(c);
+        }
+        LOGGER.debug("exit");
+    }
+
     public static void syntax() {
         System.out.println(
                 "Syntax: DBusDaemon [--version] [-v] [--help] [-h] [--listen address] [-l address] [--print-address] [-r] [--pidfile file] [-p file] [--addressfile file] [-a file] [--unix] [-u] [--tcp] [-t] ");
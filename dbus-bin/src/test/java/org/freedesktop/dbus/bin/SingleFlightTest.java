@@ -0,0 +1,221 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus.bin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusConnectionPool;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusSingleFlight;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of coalescing identical calls marked with {@link DBusSingleFlight}, on a bus inside this JVM.
+ */
+public class SingleFlightTest {
+    private static final String BUS = "SingleFlightTest";
+    private static final String NAME = "org.example.SingleFlight";
+
+    public interface Flights extends DBusInterface {
+        @DBusSingleFlight
+        public String shared(String ms);
+
+        @DBusSingleFlight(ttl = 60000)
+        public String kept(String key);
+
+        @DBusSingleFlight(ttl = 60000)
+        public String failing(String key);
+
+        public String unshared(String ms);
+    }
+
+    /** Counts how often each method is run */
+    public static class FlightsImpl implements Flights {
+        final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+        int count(final String method) {
+            final AtomicInteger c = counts.get(method);
+            return null == c ? 0 : c.get();
+        }
+
+        private int run(final String method) {
+            AtomicInteger c = counts.get(method);
+            if (null == c) {
+                counts.putIfAbsent(method, new AtomicInteger());
+                c = counts.get(method);
+            }
+            return c.incrementAndGet();
+        }
+
+        private static void sleep(final String ms) {
+            try {
+                Thread.sleep(Long.parseLong(ms));
+            } catch (final InterruptedException Ie) {
+            }
+        }
+
+        @Override
+        public boolean isRemote() {
+            return false;
+        }
+
+        @Override
+        public String shared(final String ms) {
+            run("shared");
+            sleep(ms);
+            return ms;
+        }
+
+        @Override
+        public String kept(final String key) {
+            return key + run("kept");
+        }
+
+        @Override
+        public String failing(final String key) {
+            if (1 == run("failing")) {
+                throw new DBusExecutionException("first call fails");
+            }
+            return key;
+        }
+
+        @Override
+        public String unshared(final String ms) {
+            run("unshared");
+            sleep(ms);
+            return ms;
+        }
+    }
+
+    private static DBusDaemon daemon;
+    private static DBusConnection serverconn;
+    /** A connection of its own for the client, getConnection shares one per address */
+    private static DBusConnectionPool clientpool;
+    private static DBusConnection clientconn;
+    private FlightsImpl server;
+    private Flights remote;
+    private static int objects = 0;
+
+    @BeforeClass
+    public static void setUpBus() throws Exception {
+        daemon = DBusDaemon.startInMemory(BUS);
+        serverconn = DBusConnection.getConnection("inmem:name=" + BUS);
+        serverconn.requestBusName(NAME);
+        clientpool = new DBusConnectionPool("inmem:name=" + BUS, 1, DBusConnectionPool.Strategy.ROUND_ROBIN);
+        clientconn = clientpool.getConnection();
+    }
+
+    @AfterClass
+    public static void tearDownBus() {
+        clientpool.disconnect();
+        serverconn.disconnect();
+        daemon.stopInMemory();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // an object per test, so no replies are kept across tests
+        final String path = "/Flights" + objects++;
+        server = new FlightsImpl();
+        serverconn.exportObject(path, server);
+        remote = clientconn.getRemoteObject(NAME, path, Flights.class);
+    }
+
+    /**
+     * Make the same call from several threads at once.
+     */
+    private List<String> concurrently(final int threads, final String method, final String arg) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> results = new CopyOnWriteArrayList<>();
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        final List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results.add("shared".equals(method) ? remote.shared(arg) : remote.unshared(arg));
+                    } catch (final Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            t.start();
+            callers.add(t);
+        }
+        start.countDown();
+        for (final Thread t : callers) {
+            t.join();
+        }
+        if (!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+        return results;
+    }
+
+    @Test(timeout = 20000)
+    public void testConcurrentCallsShareOneRequest() throws Exception {
+        final List<String> results = concurrently(8, "shared", "500");
+        assertEquals(1, server.count("shared"));
+        for (final String r : results) {
+            assertEquals("500", r);
+        }
+        // nothing is kept without a ttl
+        remote.shared("0");
+        remote.shared("0");
+        assertEquals(3, server.count("shared"));
+    }
+
+    @Test(timeout = 20000)
+    public void testUnmarkedCallsNotShared() throws Exception {
+        concurrently(4, "unshared", "200");
+        assertEquals(4, server.count("unshared"));
+    }
+
+    @Test(timeout = 20000)
+    public void testReplyKeptUntilInvalidated() throws Exception {
+        assertEquals("a1", remote.kept("a"));
+        assertEquals("a1", remote.kept("a"));
+        // other arguments make another call
+        assertEquals("b2", remote.kept("b"));
+        assertEquals(2, server.count("kept"));
+        clientconn.invalidateCachedReplies(remote);
+        assertEquals("a3", remote.kept("a"));
+    }
+
+    @Test(timeout = 20000)
+    public void testErrorsNotKept() throws Exception {
+        try {
+            remote.failing("x");
+            fail("First call did not fail");
+        } catch (final DBusExecutionException DBEe) {
+        }
+        assertEquals("x", remote.failing("x"));
+        assertEquals("x", remote.failing("x"));
+        assertEquals(2, server.count("failing"));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus.test;
+
+import org.freedesktop.DBus.Description;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusProperty;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+@Description("Interface used by the tests on an in-memory bus")
+@DBusProperty(name = "Count")
+public interface TestInMemoryInterface extends DBusInterface {
+    @Description("Signal sent by emit")
+    public static class Emitted extends DBusSignal {
+        public final String value;
+
+        public Emitted(final String path, final String value) throws DBusException {
+            super(path, value);
+            this.value = value;
+        }
+    }
+
+    @Description("Returns the name of the object")
+    public String getName();
+
+    @Description("Returns the name of the given object, calling back on it")
+    public String describe(TestInMemoryInterface other);
+
+    @Description("Changes the first value in the array it got and returns the array")
+    public String[] change(String[] values);
+
+    @Description("Sends the Emitted signal with the given value, then returns the value")
+    public String emit(String value);
+
+    @Description("Sleeps for the given number of milliseconds")
+    public String sleep(String ms);
+
+    @Description("Sleeps for the given number of milliseconds, the caller waits without a timeout")
+    @DBusTimeout(0)
+    public String sleepUnbounded(String ms);
+}
@@ -122,12 +122,13 @@ public class profile {
             if (0 == args.length) {
                 System.out.println("You must specify a profile type.");
                 System.out.println(
-                        "Syntax: profile <pings|arrays|introspect|maps|bytes|lists|structs|signals|rate|strings>");
+                        "Syntax: profile <pings|lowlatencypings|arrays|introspect|maps|bytes|lists|structs|signals|rate|strings>");
                 System.exit(1);
             }
             final DBusConnection conn = DBusConnection.getConnection(DBusConnection.SESSION);
             conn.requestBusName("org.freedesktop.DBus.java.profiler");
-            if ("pings".equals(args[0])) {
+            if ("pings".equals(args[0]) || "lowlatencypings".equals(args[0])) {
+                conn.setLowLatency("lowlatencypings".equals(args[0]));
                 final int count = PING_INNER * PING_OUTER;
                 System.out.print("Sending " + count + " pings...");
                 final Peer p = conn.getRemoteObject("org.freedesktop.DBus.java.profiler", "/Profiler", Peer.class);
@@ -146,6 +147,7 @@ public class profile {
                 System.out.println("min/max/avg (ms): " + l.min() + "/" + l.max() + "/" + l.mean());
                 System.out.println("deviation: " + l.stddev());
                 System.out.println("Total time: " + t + "ms");
+                System.out.println("Average round trip: " + (t * 1000 / count) + "us");
             } else if ("strings".equals(args[0])) {
                 final int count = STRING_ARRAY_INNER * STRING_ARRAY_OUTER;
                 System.out.print("Sending array of " + STRING_ARRAY_LENGTH + " strings " + count + " times.");
@@ -405,7 +407,8 @@ public class profile {
             } else {
                 conn.disconnect();
                 System.out.println("Invalid profile ``" + args[0] + "''.");
-                System.out.println("Syntax: profile <pings|arrays|introspect|maps|bytes|lists|structs|signals>");
+                System.out.println(
+                        "Syntax: profile <pings|lowlatencypings|arrays|introspect|maps|bytes|lists|structs|signals>");
                 System.exit(1);
             }
             conn.disconnect();
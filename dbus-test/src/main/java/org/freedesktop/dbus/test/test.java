@@ -710,12 +710,17 @@ public class test {
 
             System.out.println("Pinging ourselves");
             /** Call ping. */
+            final long submitted = serverconn.getMethodCallPool().getSubmittedCount();
             for (int i = 0; i < 10; i++) {
                 final long then = System.currentTimeMillis();
                 peer.Ping();
                 final long now = System.currentTimeMillis();
                 System.out.println("Ping returned in " + (now - then) + "ms.");
             }
+            /** Ping is marked @DBusInline, so it must not have been queued on the method pool. */
+            if (submitted != serverconn.getMethodCallPool().getSubmittedCount()) {
+                fail("Ping was not run inline");
+            }
 
             System.out.println("Calling Method0/1");
             /** This gets a remote object matching our bus name and exported object path. */
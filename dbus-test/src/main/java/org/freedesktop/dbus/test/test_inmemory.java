@@ -0,0 +1,296 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus.test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.DBusAsyncReply;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusConnectionPool;
+import org.freedesktop.dbus.DBusInline;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.MethodCall;
+import org.freedesktop.dbus.ObjectManagerCache;
+import org.freedesktop.dbus.PropertiesCache;
+import org.freedesktop.dbus.ReconnectPolicy;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.bin.DBusDaemon;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+class inmemoryclass implements TestInMemoryInterface {
+    private final String name;
+    private final DBusConnection conn;
+    private int count = 0;
+
+    public inmemoryclass(final String name) {
+        this(name, null);
+    }
+
+    public inmemoryclass(final String name, final DBusConnection conn) {
+        this.name = name;
+        this.conn = conn;
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String describe(final TestInMemoryInterface other) {
+        return other.getName();
+    }
+
+    @Override
+    public String[] change(final String[] values) {
+        values[0] = "changed";
+        return values;
+    }
+
+    @Override
+    public String emit(final String value) {
+        try {
+            conn.sendSignal(new TestInMemoryInterface.Emitted("/Test", value));
+        } catch (final DBusException DBe) {
+            throw new DBusExecutionException(DBe.getMessage());
+        }
+        return value;
+    }
+
+    @Override
+    public String sleep(final String ms) {
+        try {
+            Thread.sleep(Long.parseLong(ms));
+        } catch (final InterruptedException Ie) {
+        }
+        return ms;
+    }
+
+    @Override
+    public String sleepUnbounded(final String ms) {
+        return sleep(ms);
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized void setCount(final int count) {
+        this.count = count;
+    }
+}
+
+/**
+ * Tests of the connection features which need a bus, run against a bus inside this JVM, so no daemon or unix
+ * socket library is needed.
+ */
+public class test_inmemory {
+    private static final String BUS = "test_inmemory";
+    private static final String NAME = "foo.bar.InMemory";
+    private static final String IFACE = "org.freedesktop.dbus.test.TestInMemoryInterface";
+
+    static DBusConnection serverconn = null;
+    static DBusConnectionPool clientpool = null;
+
+    public static void fail(final String message) {
+        System.out.println("Test Failed: " + message);
+        System.err.println("Test Failed: " + message);
+        if (null != serverconn) {
+            serverconn.disconnect();
+        }
+        if (null != clientpool) {
+            clientpool.disconnect();
+        }
+        System.exit(1);
+    }
+
+    public static void main(final String[] args) {
+        try {
+            System.out.println("Starting in-memory bus");
+            DBusDaemon daemon = DBusDaemon.startInMemory(BUS);
+            serverconn = DBusConnection.getConnection("inmem:name=" + BUS);
+            clientpool = new DBusConnectionPool("inmem:name=" + BUS, 3, DBusConnectionPool.Strategy.ROUND_ROBIN);
+            final DBusConnection clientconn = clientpool.getConnection();
+            serverconn.requestBusName(NAME);
+            final inmemoryclass server = new inmemoryclass("server", serverconn);
+            serverconn.exportObject("/Test", server);
+
+            System.out.println("Following properties");
+            final PropertiesCache props = new PropertiesCache(clientconn, NAME, "/Test", IFACE);
+            if (!Integer.valueOf(0).equals(props.get("Count"))) {
+                fail("Count not read by the properties cache: " + props.getAll());
+            }
+            final CountDownLatch changed = new CountDownLatch(1);
+            props.addListener(new PropertiesCache.Listener() {
+                @Override
+                public void propertiesChanged(final PropertiesCache cache, final Map<String, Variant<?>> values,
+                        final List<String> invalidated) {
+                    changed.countDown();
+                }
+            });
+            clientconn.getRemoteObject(NAME, "/Test", DBus.Properties.class).Set(IFACE, "Count", 5);
+            if (!changed.await(5, TimeUnit.SECONDS) || !Integer.valueOf(5).equals(props.get("Count"))) {
+                fail("PropertiesChanged not applied to the cache: " + props.getAll());
+            }
+            props.close();
+
+            System.out.println("Following an object manager");
+            serverconn.exportObjectManager("/Managed");
+            serverconn.exportObject("/Managed/One", new inmemoryclass("one"));
+            final ObjectManagerCache objects = new ObjectManagerCache(clientconn, NAME, "/Managed");
+            if (!objects.getObjectPaths().contains("/Managed/One")) {
+                fail("Managed object not listed: " + objects.getObjectPaths());
+            }
+            final CountDownLatch added = new CountDownLatch(1);
+            objects.addListener(new ObjectManagerCache.Listener() {
+                @Override
+                public void interfacesAdded(final ObjectManagerCache cache, final String objectpath,
+                        final Map<String, Map<String, Variant<?>>> interfaces) {
+                    added.countDown();
+                }
+
+                @Override
+                public void interfacesRemoved(final ObjectManagerCache cache, final String objectpath,
+                        final List<String> interfaces) {
+                }
+            });
+            serverconn.exportObject("/Managed/Two", new inmemoryclass("two"));
+            if (!added.await(5, TimeUnit.SECONDS) || null == objects.getInterfaces("/Managed/Two")
+                    || !objects.getInterfaces("/Managed/Two").containsKey(IFACE)) {
+                fail("InterfacesAdded not applied to the cache: " + objects.getObjects());
+            }
+            objects.close();
+
+            System.out.println("Calling through the pool");
+            final TestInMemoryInterface remote = clientpool.getRemoteObject(NAME, "/Test",
+                    TestInMemoryInterface.class);
+            clientpool.exportObject("/Client", new inmemoryclass("client"));
+            final TestInMemoryInterface client = clientconn.getRemoteObject(clientpool.getUniqueName(), "/Client",
+                    TestInMemoryInterface.class);
+            for (int i = 0; i < 2 * clientpool.size(); i++) {
+                if (!"server".equals(remote.getName())) {
+                    fail("Wrong reply through the pool");
+                }
+                if (!"client".equals(remote.describe(client))) {
+                    fail("Object passed through the pool not called back");
+                }
+            }
+
+            System.out.println("Calling ourselves");
+            final TestInMemoryInterface self = serverconn.getRemoteObject(NAME, "/Test", TestInMemoryInterface.class);
+            final String[] values = new String[] { "original" };
+            final String[] returned = self.change(values);
+            if (!"changed".equals(returned[0]) || !"original".equals(values[0])) {
+                fail("Call to ourselves shares its arguments");
+            }
+
+            System.out.println("Keeping a reply to ourselves behind our signal");
+            final List<String> emitted = new CopyOnWriteArrayList<>();
+            serverconn.addSigHandler(TestInMemoryInterface.Emitted.class,
+                    new DBusSigHandler<TestInMemoryInterface.Emitted>() {
+                        @Override
+                        @DBusInline
+                        public void handle(final TestInMemoryInterface.Emitted s) {
+                            emitted.add(s.value);
+                        }
+                    });
+            for (int i = 0; i < 10; i++) {
+                final String value = "signal" + i;
+                if (!value.equals(self.emit(value))) {
+                    fail("Wrong reply to emit");
+                }
+                if (!emitted.contains(value)) {
+                    fail("Reply overtook a signal sent before it");
+                }
+            }
+
+            System.out.println("Timing out and cancelling calls");
+            final TestInMemoryInterface hurried = clientconn.withTimeout(
+                    clientconn.getRemoteObject(NAME, "/Test", TestInMemoryInterface.class), 200);
+            long then = System.currentTimeMillis();
+            try {
+                hurried.sleep("2000");
+                fail("Call with a timeout was not timed out");
+            } catch (final DBus.Error.NoReply NR) {
+            }
+            if (System.currentTimeMillis() - then >= 2000) {
+                fail("Call timed out late");
+            }
+            final long timeout = MethodCall.getDefaultTimeout();
+            MethodCall.setDefaultTimeout(200);
+            try {
+                final TestInMemoryInterface patient = clientconn.getRemoteObject(NAME, "/Test",
+                        TestInMemoryInterface.class);
+                if (!"500".equals(patient.sleepUnbounded("500"))) {
+                    fail("Wrong reply to call without a timeout");
+                }
+            } catch (final DBus.Error.NoReply NR) {
+                fail("Call marked @DBusTimeout(0) timed out");
+            } finally {
+                MethodCall.setDefaultTimeout(timeout);
+            }
+            final DBusAsyncReply<?> cancelled = clientconn.callMethodAsync(
+                    clientconn.getRemoteObject(NAME, "/Test", TestInMemoryInterface.class), "sleep", "500");
+            cancelled.cancel();
+            if (!cancelled.isCancelled()) {
+                fail("Call not cancelled");
+            }
+            Thread.sleep(1000);
+            try {
+                cancelled.getReply();
+                fail("Reply to cancelled call was not dropped");
+            } catch (final DBus.Error.NoReply NR) {
+            }
+
+            System.out.println("Reconnecting");
+            final ReconnectPolicy policy = new ReconnectPolicy(100, 500, 0, true);
+            serverconn.setReconnectPolicy(policy);
+            clientpool.setReconnectPolicy(policy);
+            daemon.stopInMemory();
+            daemon = DBusDaemon.startInMemory(BUS);
+            then = System.currentTimeMillis();
+            while (true) {
+                try {
+                    if (!"server".equals(remote.getName())) {
+                        fail("Wrong reply after reconnecting");
+                    }
+                    break;
+                } catch (final DBusExecutionException DBEe) {
+                    if (System.currentTimeMillis() - then > 10000) {
+                        fail("No reconnect: " + DBEe.getMessage());
+                    }
+                    Thread.sleep(100);
+                }
+            }
+            System.out.println("Reconnected in " + (System.currentTimeMillis() - then) + "ms");
+
+            clientpool.disconnect();
+            serverconn.disconnect();
+            daemon.stopInMemory();
+            System.out.println("Tests passed");
+        } catch (final Exception e) {
+            e.printStackTrace();
+            fail("Unexpected Exception Occurred: " + e);
+        }
+    }
+}
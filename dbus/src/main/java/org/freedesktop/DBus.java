@@ -20,6 +20,7 @@ import java.util.Map;
 
 import org.freedesktop.dbus.DBusInterface;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.Position;
 import org.freedesktop.dbus.Struct;
 import org.freedesktop.dbus.Tuple;
@@ -92,6 +93,83 @@ public interface DBus extends DBusInterface {
          * @return The properties mapped to their values.
          */
         public Map<String, Variant<?>> GetAll(String interface_name);
+
+        /**
+         * Signal sent when properties of an object change.
+         */
+        public class PropertiesChanged extends DBusSignal {
+            public final String interface_name;
+            public final Map<String, Variant<?>> changed_properties;
+            public final List<String> invalidated_properties;
+
+            public PropertiesChanged(final String path, final String interface_name,
+                    final Map<String, Variant<?>> changed_properties, final List<String> invalidated_properties)
+                    throws DBusException {
+                super(path, new Object[] { interface_name, changed_properties, invalidated_properties });
+                this.interface_name = interface_name;
+                this.changed_properties = changed_properties;
+                this.invalidated_properties = invalidated_properties;
+            }
+
+            @Override
+            public String toString() {
+                return "PropertiesChanged [interface_name=" + interface_name + ", changed_properties="
+                        + changed_properties + ", invalidated_properties=" + invalidated_properties + "]";
+            }
+        }
+    }
+
+    /**
+     * A standard interface to list the objects below a path, with their interfaces and properties, in one call.
+     */
+    public interface ObjectManager extends DBusInterface {
+        /**
+         * Get all objects below the object implementing this interface.
+         *
+         * @return The objects mapped to their interfaces, and the interfaces mapped to their properties.
+         */
+        public Map<Path, Map<String, Map<String, Variant<?>>>> GetManagedObjects();
+
+        /**
+         * Signal sent when an object is added below the object manager, or an object gains interfaces.
+         */
+        public class InterfacesAdded extends DBusSignal {
+            public final Path object_path;
+            public final Map<String, Map<String, Variant<?>>> interfaces_and_properties;
+
+            public InterfacesAdded(final String path, final Path object_path,
+                    final Map<String, Map<String, Variant<?>>> interfaces_and_properties) throws DBusException {
+                super(path, new Object[] { object_path, interfaces_and_properties });
+                this.object_path = object_path;
+                this.interfaces_and_properties = interfaces_and_properties;
+            }
+
+            @Override
+            public String toString() {
+                return "InterfacesAdded [object_path=" + object_path + ", interfaces_and_properties="
+                        + interfaces_and_properties + "]";
+            }
+        }
+
+        /**
+         * Signal sent when an object is removed from below the object manager, or an object loses interfaces.
+         */
+        public class InterfacesRemoved extends DBusSignal {
+            public final Path object_path;
+            public final List<String> interfaces;
+
+            public InterfacesRemoved(final String path, final Path object_path, final List<String> interfaces)
+                    throws DBusException {
+                super(path, new Object[] { object_path, interfaces });
+                this.object_path = object_path;
+                this.interfaces = interfaces;
+            }
+
+            @Override
+            public String toString() {
+                return "InterfacesRemoved [object_path=" + object_path + ", interfaces=" + interfaces + "]";
+            }
+        }
     }
 
     /**
@@ -328,6 +406,36 @@ public interface DBus extends DBusInterface {
             }
         }
 
+        /**
+         * Thrown if a method call could not be run because a resource limit was reached
+         */
+        @SuppressWarnings("serial")
+        public class LimitsExceeded extends DBusExecutionException {
+            public LimitsExceeded(final String message) {
+                super(message);
+            }
+        }
+
+        /**
+         * Thrown if the property asked for does not exist on the object
+         */
+        @SuppressWarnings("serial")
+        public class UnknownProperty extends DBusExecutionException {
+            public UnknownProperty(final String message) {
+                super(message);
+            }
+        }
+
+        /**
+         * Thrown if a property cannot be written
+         */
+        @SuppressWarnings("serial")
+        public class PropertyReadOnly extends DBusExecutionException {
+            public PropertyReadOnly(final String message) {
+                super(message);
+            }
+        }
+
         /**
          * Thrown if a message is denied due to a security policy
          */
@@ -13,16 +13,39 @@ package org.freedesktop.dbus;
 
 import static org.freedesktop.dbus.Gettext.localize;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
 import java.text.MessageFormat;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.freedesktop.DBus;
@@ -40,38 +63,39 @@ import org.slf4j.LoggerFactory;
 public abstract class AbstractConnection {
     private final Logger logger = LoggerFactory.getLogger(AbstractConnection.class);
 
-    protected class FallbackContainer {
-        private final Map<String[], ExportedObject> fallbacks = new HashMap<>();
+    /** Identifies a proxy by the remote object and the interfaces it implements */
+    private static class ProxyKey {
+        private final RemoteObject remote;
+        private final List<Class<?>> ifaces;
 
-        public synchronized void add(final String path, final ExportedObject eo) {
-            logger.debug("Adding fallback on {} of {}", path, eo);
-            fallbacks.put(path.split("/"), eo);
+        public ProxyKey(final RemoteObject remote, final Class<?>[] ifaces) {
+            this.remote = remote;
+            this.ifaces = Arrays.asList(ifaces);
         }
 
-        public synchronized void remove(final String path) {
-            logger.debug("Removing fallback on {}", path);
-            fallbacks.remove(path.split("/"));
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof ProxyKey)) {
+                return false;
+            }
+            final ProxyKey them = (ProxyKey) o;
+            return remote.equals(them.remote) && ifaces.equals(them.ifaces);
         }
 
-        public synchronized ExportedObject get(final String path) {
-            final int best = 0;
-            int i = 0;
-            ExportedObject bestobject = null;
-            final String[] pathel = path.split("/");
-            for (final String[] fbpath : fallbacks.keySet()) {
-                logger.trace("Trying fallback path {} to match {}", fbpath, pathel);
-                for (i = 0; i < pathel.length && i < fbpath.length; i++) {
-                    if (!pathel[i].equals(fbpath[i])) {
-                        break;
-                    }
-                }
-                if (i > 0 && i == fbpath.length && i > best) {
-                    bestobject = fallbacks.get(fbpath);
-                }
-                logger.trace("Matches {} bestobject now {}", i, bestobject);
-            }
-            logger.debug("Found fallback for {} of {}", path, bestobject);
-            return bestobject;
+        @Override
+        public int hashCode() {
+            return remote.hashCode() * 31 + ifaces.hashCode();
+        }
+    }
+
+    /** A cached proxy, which does not keep the proxy alive */
+    private static class ProxyReference extends WeakReference<DBusInterface> {
+        private final ProxyKey key;
+
+        public ProxyReference(final DBusInterface proxy, final ProxyKey key,
+                final ReferenceQueue<DBusInterface> queue) {
+            super(proxy, queue);
+            this.key = key;
         }
     }
 
@@ -86,13 +110,16 @@ public abstract class AbstractConnection {
                 Message m = null;
                 while (_run) {
                     m = null;
+                    awaitTransport(false);
+                    final Transport t = transport;
 
                     // read from the wire
                     try {
                         // this blocks on outgoing being non-empty or a message being available.
-                        m = readIncoming();
+                        m = readIncoming(t);
                         if (m != null) {
                             logger.trace("Got Incoming Message: {}", m);
+                            noteEcho(m);
                             synchronized (this) {
                                 notifyAll();
                             }
@@ -114,7 +141,7 @@ public abstract class AbstractConnection {
                             logger.error("Exception", e);
                         }
                         if (e instanceof FatalException) {
-                            disconnect();
+                            connectionLost(t);
                         }
                     }
 
@@ -147,15 +174,25 @@ public abstract class AbstractConnection {
         }
 
         @Override
+        @DBusInline
         public void Ping() {
             return;
         }
 
         @Override
+        @DBusInline
         public String Introspect() {
             String intro = objectTree.Introspect(objectpath);
+            if (objectmanagers.contains(objectpath)) {
+                // the object manager is answered by the connection, so it is not part of the exported objects
+                if (null == intro) {
+                    intro = "<node name=\"" + objectpath + "\">\n</node>";
+                }
+                final int i = intro.indexOf('\n') + 1;
+                intro = intro.substring(0, i) + ExportedObjectManager.INTROSPECTION_DATA + intro.substring(i);
+            }
             if (null == intro) {
-                final ExportedObject eo = fallbackcontainer.get(objectpath);
+                final ExportedObject eo = objectTree.getFallback(objectpath);
                 if (null != eo) {
                     intro = eo.introspectiondata;
                 }
@@ -169,35 +206,6 @@ public abstract class AbstractConnection {
         }
     }
 
-    protected class _workerthread extends Thread {
-        private boolean _run = true;
-
-        public void halt() {
-            _run = false;
-        }
-
-        @Override
-        public void run() {
-            while (_run) {
-                Runnable r = null;
-                synchronized (runnables) {
-                    while (runnables.size() == 0 && _run) {
-                        try {
-                            runnables.wait();
-                        } catch (final InterruptedException Ie) {
-                        }
-                    }
-                    if (runnables.size() > 0) {
-                        r = runnables.removeFirst();
-                    }
-                }
-                if (null != r) {
-                    r.run();
-                }
-            }
-        }
-    }
-
     private class _sender extends Thread {
         public _sender() {
             setName("Sender");
@@ -206,6 +214,7 @@ public abstract class AbstractConnection {
         @Override
         public void run() {
             Message m = null;
+            final List<Message> drained = new ArrayList<>();
 
             logger.info("Monitoring outbound queue");
             // block on the outbound queue and send from it
@@ -220,16 +229,20 @@ public abstract class AbstractConnection {
                             }
                         }
                         logger.trace("Notified");
-                        if (outgoing.size() > 0) {
-                            m = outgoing.remove();
+                        // take everything queued, so messages queued together leave in one write
+                        while (outgoing.size() > 0) {
+                            drained.add(outgoing.remove());
                         }
-                        logger.debug("Got message: {}", m);
+                        logger.debug("Got {} messages", drained.size());
                     }
                 }
-                if (null != m) {
-                    sendMessage(m);
+                if (!drained.isEmpty()) {
+                    awaitTransport(true);
                 }
-                m = null;
+                for (int i = 0; i < drained.size(); i++) {
+                    sendMessage(drained.get(i), i == drained.size() - 1);
+                }
+                drained.clear();
             }
 
             logger.info("Flushing outbound queue and quitting");
@@ -265,30 +278,71 @@ public abstract class AbstractConnection {
     static final byte THREADCOUNT = 4;
     static final int MAX_ARRAY_LENGTH = 67108864;
     static final int MAX_NAME_LENGTH = 255;
-    protected Map<String, ExportedObject> exportedObjects;
-    private final ObjectTree objectTree;
+    final ObjectTree objectTree;
+    private final PropertiesEmitter propertiesemitter;
+    final SingleFlight singleflight;
+    private final Set<String> objectmanagers = new ConcurrentSkipListSet<>();
+    private final ExportedObject objectmanagerhandler;
     private final _globalhandler _globalhandlerreference;
+    private final ExportedObject globalhandler;
     protected Map<DBusInterface, RemoteObject> importedObjects;
+    private final Map<ProxyKey, ProxyReference> proxies = new ConcurrentHashMap<>();
+    private final ReferenceQueue<DBusInterface> collectedproxies = new ReferenceQueue<>();
     protected Map<SignalTuple, Vector<DBusSigHandler<? extends DBusSignal>>> handledSignals;
     protected EfficientMap pendingCalls;
+    /** Serials of recently cancelled calls, whose late replies are dropped; guarded by pendingCalls */
+    private final Map<Long, Boolean> cancelledCalls = new LinkedHashMap<Long, Boolean>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, Boolean> eldest) {
+            return size() > MAX_CANCELLED_CALLS;
+        }
+    };
+    private static final int MAX_CANCELLED_CALLS = 1024;
+    private ScheduledThreadPoolExecutor scheduler = null;
     protected Map<MethodCall, CallbackHandler<? extends Object>> pendingCallbacks;
     protected Map<MethodCall, DBusAsyncReply<? extends Object>> pendingCallbackReplys;
-    protected LinkedList<Runnable> runnables;
-    protected LinkedList<_workerthread> workers;
-    protected FallbackContainer fallbackcontainer;
-    protected boolean _run;
+    protected WorkerPool methodpool;
+    protected WorkerPool signalpool;
+    protected WorkerPool callbackpool;
+    protected Map<String, WorkerPool> interfacepools;
+    protected volatile boolean _run;
     EfficientQueue outgoing;
+    /**
+     * Serial of the last message queued to come back to this connection through the bus while a signal sent by it
+     * is on its way, 0 if none. Written with the lock on outgoing held.
+     */
+    private volatile long echoserial = 0;
     LinkedList<Error> pendingErrors;
     private static final Map<Thread, DBusCallInfo> infomap = new HashMap<>();
+    private static final Map<Class<?>, Boolean> inlinehandlers = new ConcurrentHashMap<>();
+    /** Methods found to be @DBusInline, by implementing class and interface method */
+    private static final Map<Class<?>, Map<Method, Boolean>> inlinemethods = new ConcurrentHashMap<>();
     protected _thread thread;
     protected _sender sender;
     protected Transport transport;
     protected String addr;
     protected boolean weakreferences = false;
+    private volatile boolean lowlatency = false;
+    /** The spin length of the low latency reply handoff, adapted to the round trips of this connection */
+    private final AtomicInteger replyspins = new AtomicInteger(MethodCall.MIN_SPINS);
     static final Pattern dollar_pattern = Pattern.compile("[$]");
+    private static final Pattern interface_pattern = Pattern
+            .compile("<interface\\s+name\\s*=\\s*['\"]([^'\"]*)['\"]");
+    /** Interface names resolved to classes */
+    private final Map<String, Class<?>> interfaceclasses = new ConcurrentHashMap<>();
+    /** Interface names without a class, with the time they were looked up; they are tried again when it is old */
+    private final Map<String, Long> missinginterfaces = new ConcurrentHashMap<>();
+    private static final long MISSING_INTERFACE_TTL = 30000;
     public static final boolean EXCEPTION_DEBUG;
     static final boolean FLOAT_SUPPORT;
-    protected boolean connected = false;
+    protected volatile boolean connected = false;
+    /** Set while the transport is being replaced; guarded by reconnectlock */
+    volatile boolean reconnecting = false;
+    /** Whether messages queued while reconnecting are kept until the new transport is up, or fail at once */
+    private boolean holdoutgoing = false;
+    final Object reconnectlock = new Object();
     static {
         FLOAT_SUPPORT = null != System.getenv("DBUS_JAVA_FLOATS");
         EXCEPTION_DEBUG = null != System.getenv("DBUS_JAVA_EXCEPTION_DEBUG");
@@ -298,29 +352,23 @@ public abstract class AbstractConnection {
     }
 
     protected AbstractConnection(final String address) throws DBusException {
-        exportedObjects = new HashMap<>();
-        importedObjects = new HashMap<>();
+        importedObjects = Collections.synchronizedMap(new WeakIdentityMap<DBusInterface, RemoteObject>());
         _globalhandlerreference = new _globalhandler();
-        synchronized (exportedObjects) {
-            exportedObjects.put(null, new ExportedObject(_globalhandlerreference, weakreferences));
-        }
+        globalhandler = new ExportedObject(_globalhandlerreference, false);
+        objectmanagerhandler = new ExportedObject(new ExportedObjectManager(this, "/"), false);
         handledSignals = new HashMap<>();
         pendingCalls = new EfficientMap(PENDING_MAP_INITIAL_SIZE);
         outgoing = new EfficientQueue(PENDING_MAP_INITIAL_SIZE);
         pendingCallbacks = new HashMap<>();
         pendingCallbackReplys = new HashMap<>();
         pendingErrors = new LinkedList<>();
-        runnables = new LinkedList<>();
-        workers = new LinkedList<>();
         objectTree = new ObjectTree();
-        fallbackcontainer = new FallbackContainer();
-        synchronized (workers) {
-            for (int i = 0; i < THREADCOUNT; i++) {
-                final _workerthread t = new _workerthread();
-                t.start();
-                workers.add(t);
-            }
-        }
+        propertiesemitter = new PropertiesEmitter(this);
+        singleflight = new SingleFlight(this);
+        methodpool = new WorkerPool("Methods", THREADCOUNT, 0);
+        signalpool = new WorkerPool("Signals", THREADCOUNT, 0);
+        callbackpool = new WorkerPool("Callbacks", THREADCOUNT, 0);
+        interfacepools = new ConcurrentHashMap<>();
         _run = true;
         addr = address;
     }
@@ -335,48 +383,112 @@ public abstract class AbstractConnection {
 
     /**
      * Change the number of worker threads to receive method calls and handle signals.
-     * Default is 4 threads
+     * Default is 4 threads. This changes the method call, signal and callback pools;
+     * use {@link #getMethodCallPool()}, {@link #getSignalPool()} and {@link #getCallbackPool()} to change them
+     * individually.
      *
      * @param newcount The new number of worker Threads to use.
      */
     public void changeThreadCount(final byte newcount) {
-        synchronized (workers) {
-            if (workers.size() > newcount) {
-                final int n = workers.size() - newcount;
-                for (int i = 0; i < n; i++) {
-                    final _workerthread t = workers.removeFirst();
-                    t.halt();
-                }
-            } else if (workers.size() < newcount) {
-                final int n = newcount - workers.size();
-                for (int i = 0; i < n; i++) {
-                    final _workerthread t = new _workerthread();
-                    t.start();
-                    workers.add(t);
-                }
-            }
+        methodpool.setThreadCount(newcount);
+        signalpool.setThreadCount(newcount);
+        callbackpool.setThreadCount(newcount);
+    }
+
+    /**
+     * Returns the pool which runs incoming method calls on exported objects,
+     * unless the interface has its own pool.
+     */
+    public WorkerPool getMethodCallPool() {
+        return methodpool;
+    }
+
+    /**
+     * Returns the pool which runs signal handlers.
+     */
+    public WorkerPool getSignalPool() {
+        return signalpool;
+    }
+
+    /**
+     * Returns the pool which runs the callbacks of asynchronous method calls.
+     */
+    public WorkerPool getCallbackPool() {
+        return callbackpool;
+    }
+
+    /**
+     * Returns the emitter used to announce changes of properties of exported objects.
+     */
+    public PropertiesEmitter getPropertiesEmitter() {
+        return propertiesemitter;
+    }
+
+    /**
+     * Run incoming method calls on the given interface in a pool of their own.
+     * Calls on other interfaces are not delayed by slow methods on this one.
+     *
+     * @param iface The D-Bus name of the interface, e.g. "org.freedesktop.DBus.Peer".
+     * @param threads The number of worker threads.
+     * @param queuelimit The maximum number of queued calls, or 0 for no limit.
+     * @return The new pool.
+     */
+    public WorkerPool addInterfacePool(final String iface, final int threads, final int queuelimit) {
+        final WorkerPool pool = new WorkerPool(iface, threads, queuelimit);
+        final WorkerPool old = interfacepools.put(iface, pool);
+        if (null != old) {
+            old.shutdown();
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the pool for the given interface, or null if calls on it use the method call pool.
+     *
+     * @param iface The D-Bus name of the interface.
+     */
+    public WorkerPool getInterfacePool(final String iface) {
+        return interfacepools.get(iface);
+    }
+
+    /**
+     * Stop using a separate pool for the given interface.
+     *
+     * @param iface The D-Bus name of the interface.
+     */
+    public void removeInterfacePool(final String iface) {
+        final WorkerPool old = interfacepools.remove(iface);
+        if (null != old) {
+            old.shutdown();
         }
     }
 
-    private void addRunnable(final Runnable r) {
-        synchronized (runnables) {
-            runnables.add(r);
-            runnables.notifyAll();
+    private WorkerPool getPoolForMethod(final Method meth) {
+        if (!interfacepools.isEmpty()) {
+            final Class<?> c = meth.getDeclaringClass();
+            final String iface;
+            if (null != c.getAnnotation(DBusInterfaceName.class)) {
+                iface = c.getAnnotation(DBusInterfaceName.class).value();
+            } else {
+                iface = dollar_pattern.matcher(c.getName()).replaceAll(".");
+            }
+            final WorkerPool pool = interfacepools.get(iface);
+            if (null != pool) {
+                return pool;
+            }
         }
+        return methodpool;
     }
 
     String getExportedObject(final DBusInterface i) throws DBusException {
-        synchronized (exportedObjects) {
-            for (final String s : exportedObjects.keySet()) {
-                if (i.equals(exportedObjects.get(s).object.get())) {
-                    return s;
-                }
-            }
+        final String path = objectTree.getPath(i);
+        if (null != path) {
+            return path;
         }
 
-        final String s = importedObjects.get(i).objectpath;
-        if (null != s) {
-            return s;
+        final RemoteObject ro = importedObjects.get(i);
+        if (null != ro && null != ro.objectpath) {
+            return ro.objectpath;
         }
 
         throw new DBusException("Not an object exported or imported by this connection");
@@ -384,6 +496,125 @@ public abstract class AbstractConnection {
 
     abstract DBusInterface getExportedObject(String source, String path) throws DBusException;
 
+    /**
+     * Returns the interfaces named in introspection data which have a Java class.
+     *
+     * @param data The introspection data of a remote object.
+     * @return The interface classes, in the order they are named.
+     * @throws DBusException If none of the interfaces has a Java class.
+     */
+    Class<?>[] getInterfaces(final String data) throws DBusException {
+        final List<String> names = new ArrayList<>();
+        final Matcher m = interface_pattern.matcher(data);
+        while (m.find()) {
+            names.add(m.group(1));
+        }
+        return getInterfaces(names);
+    }
+
+    /**
+     * Returns the interfaces of the given names which have a Java class.
+     *
+     * @param names The names of the interfaces of a remote object.
+     * @return The interface classes, in the order they are named.
+     * @throws DBusException If none of the interfaces has a Java class.
+     */
+    Class<?>[] getInterfaces(final Collection<String> names) throws DBusException {
+        final List<Class<?>> ifcs = new ArrayList<>();
+        for (final String name : names) {
+            final Class<?> c = getInterfaceClass(name);
+            if (null != c && !ifcs.contains(c)) {
+                ifcs.add(c);
+            }
+        }
+        if (ifcs.size() == 0) {
+            throw new DBusException(localize("Could not find an interface to cast to"));
+        }
+        return ifcs.toArray(new Class<?>[0]);
+    }
+
+    private Class<?> getInterfaceClass(final String iface) {
+        Class<?> c = interfaceclasses.get(iface);
+        if (null == c) {
+            final Long missing = missinginterfaces.get(iface);
+            if (null != missing && System.currentTimeMillis() - missing < MISSING_INTERFACE_TTL) {
+                return null;
+            }
+            logger.debug("Trying interface {}", iface);
+            // nested interfaces have a $ in place of the dots separating them from their outer classes
+            String name = iface;
+            int j = 0;
+            while (j >= 0) {
+                try {
+                    final Class<?> ifclass = Class.forName(name);
+                    if (DBusInterface.class.isAssignableFrom(ifclass)) {
+                        c = ifclass;
+                    }
+                    break;
+                } catch (final ClassNotFoundException CNFe) {
+                }
+                j = name.lastIndexOf('.');
+                if (j >= 0) {
+                    name = name.substring(0, j) + '$' + name.substring(j + 1);
+                }
+            }
+            if (null == c) {
+                // the class may still be loaded later, so look again after a while
+                missinginterfaces.put(iface, System.currentTimeMillis());
+            } else {
+                missinginterfaces.remove(iface);
+                interfaceclasses.put(iface, c);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns a proxy for the given remote object implementing the given interfaces.
+     * Proxies are cached as long as they are in use, so asking for the same remote object again returns the
+     * same proxy.
+     *
+     * @param ro The remote object.
+     * @param ifaces The interfaces the proxy implements. The class loader of the first one is used.
+     * @return The proxy.
+     */
+    DBusInterface getProxy(final RemoteObject ro, final Class<?>... ifaces) {
+        final ProxyKey key = new ProxyKey(ro, ifaces);
+        ProxyReference ref = proxies.get(key);
+        DBusInterface proxy = null == ref ? null : ref.get();
+        if (null != proxy) {
+            return proxy;
+        }
+        synchronized (proxies) {
+            Reference<? extends DBusInterface> r;
+            while (null != (r = collectedproxies.poll())) {
+                proxies.remove(((ProxyReference) r).key, r);
+            }
+            ref = proxies.get(key);
+            proxy = null == ref ? null : ref.get();
+            if (null == proxy) {
+                proxy = (DBusInterface) Proxy.newProxyInstance(ifaces[0].getClassLoader(), ifaces,
+                        new RemoteInvocationHandler(this, ro));
+                importedObjects.put(proxy, ro);
+                proxies.put(key, new ProxyReference(proxy, key, collectedproxies));
+            }
+            return proxy;
+        }
+    }
+
+    /**
+     * Returns the number of calls waiting for a reply.
+     */
+    int getPendingCallCount() {
+        final EfficientMap calls = pendingCalls;
+        if (null == calls) {
+            return 0;
+        }
+        synchronized (calls) {
+            return calls.size();
+        }
+    }
+
     /**
      * Returns a structure with information on the current method call.
      *
@@ -407,6 +638,27 @@ public abstract class AbstractConnection {
         this.weakreferences = weakreferences;
     }
 
+    /**
+     * If set to true, threads making synchronous calls on this connection spin briefly and then park until
+     * the reply arrives, instead of waiting on the monitor of the call.
+     * This lowers the round trip time of short calls at the cost of some CPU time while waiting.
+     * The default is false.
+     */
+    public void setLowLatency(final boolean lowlatency) {
+        this.lowlatency = lowlatency;
+    }
+
+    /**
+     * Returns true if synchronous calls on this connection use the low latency reply handoff.
+     */
+    public boolean isLowLatency() {
+        return lowlatency;
+    }
+
+    AtomicInteger getReplySpins() {
+        return replyspins;
+    }
+
     /**
      * Export an object so that its methods can be called on DBus.
      *
@@ -426,16 +678,86 @@ public abstract class AbstractConnection {
         if (!objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH) {
             throw new DBusException(localize("Invalid object path: ") + objectpath);
         }
-        synchronized (exportedObjects) {
-            if (null != exportedObjects.get(objectpath)) {
-                throw new DBusException(localize("Object already exported"));
+        if (null != objectTree.get(objectpath)) {
+            throw new DBusException(localize("Object already exported"));
+        }
+        final ExportedObject eo = new ExportedObject(object, weakreferences);
+        if (!objectTree.add(objectpath, eo)) {
+            throw new DBusException(localize("Object already exported"));
+        }
+        final String manager = getObjectManager(objectpath);
+        if (null != manager) {
+            try {
+                sendSignal(new DBus.ObjectManager.InterfacesAdded(manager, new Path(objectpath),
+                        ExportedObjectManager.getInterfacesAndProperties(this, eo, object)));
+            } catch (final DBusExecutionException DBEe) {
+                if (EXCEPTION_DEBUG) {
+                    logger.error("Exception", DBEe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answer org.freedesktop.DBus.ObjectManager on the given path, listing all objects exported below it.
+     * Objects exported or unexported below the path are announced with the InterfacesAdded and
+     * InterfacesRemoved signals, so clients can follow the tree without introspecting it.
+     *
+     * @param objectpath The path of the object manager.
+     * @throws DBusException If the objectpath is incorrectly formatted.
+     */
+    public void exportObjectManager(final String objectpath) throws DBusException {
+        if (null == objectpath || !objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH) {
+            throw new DBusException(localize("Invalid object path: ") + objectpath);
+        }
+        objectmanagers.add(objectpath);
+    }
+
+    /**
+     * Stop answering org.freedesktop.DBus.ObjectManager on the given path.
+     *
+     * @param objectpath The path of the object manager.
+     */
+    public void unExportObjectManager(final String objectpath) {
+        objectmanagers.remove(objectpath);
+    }
+
+    /**
+     * Returns the closest object manager above the given path, or null if there is none.
+     */
+    private String getObjectManager(final String objectpath) {
+        String p = objectpath;
+        while (!objectmanagers.isEmpty() && !"/".equals(p)) {
+            final int i = p.lastIndexOf('/');
+            p = 0 == i ? "/" : p.substring(0, i);
+            if (objectmanagers.contains(p)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    private void sendInterfacesRemoved(final String objectpath, final ExportedObject eo) {
+        final String manager = getObjectManager(objectpath);
+        if (null != manager && null != eo) {
+            try {
+                sendSignal(new DBus.ObjectManager.InterfacesRemoved(manager, new Path(objectpath), eo.interfaces));
+            } catch (final DBusException DBe) {
+                if (EXCEPTION_DEBUG) {
+                    logger.error("Exception", DBe);
+                }
             }
-            final ExportedObject eo = new ExportedObject(object, weakreferences);
-            exportedObjects.put(objectpath, eo);
-            objectTree.add(objectpath, eo, eo.introspectiondata);
         }
     }
 
+    /**
+     * Stop exporting a weakly exported object which has been garbage collected.
+     */
+    void unExportCollected(final String objectpath, final ExportedObject eo) {
+        logger.info("Unexporting {} implicitly", objectpath);
+        sendInterfacesRemoved(objectpath, objectTree.remove(objectpath, eo));
+    }
+
     /**
      * Export an object as a fallback object.
      * This object will have it's methods invoked for all paths starting
@@ -454,7 +776,7 @@ public abstract class AbstractConnection {
             throw new DBusException(localize("Invalid object path: ") + objectprefix);
         }
         final ExportedObject eo = new ExportedObject(object, weakreferences);
-        fallbackcontainer.add(objectprefix, eo);
+        objectTree.addFallback(objectprefix, eo);
     }
 
     /**
@@ -463,7 +785,7 @@ public abstract class AbstractConnection {
      * @param objectprefix The prefix to remove the fallback for.
      */
     public void removeFallback(final String objectprefix) {
-        fallbackcontainer.remove(objectprefix);
+        objectTree.removeFallback(objectprefix);
     }
 
     /**
@@ -472,10 +794,7 @@ public abstract class AbstractConnection {
      * @param objectpath The objectpath to stop exporting.
      */
     public void unExportObject(final String objectpath) {
-        synchronized (exportedObjects) {
-            exportedObjects.remove(objectpath);
-            objectTree.remove(objectpath);
-        }
+        sendInterfacesRemoved(objectpath, objectTree.remove(objectpath));
     }
 
     /**
@@ -505,16 +824,249 @@ public abstract class AbstractConnection {
     }
 
     void queueOutgoing(final Message m) {
+        if (dispatchLocal(m)) {
+            return;
+        }
+        if (rejectWhileReconnecting(m)) {
+            return;
+        }
+        final boolean back = m instanceof DBusSignal ? expectsEcho((DBusSignal) m)
+                : 0 != echoserial && null != getLocalSender(m.getDestination());
         synchronized (outgoing) {
             if (null == outgoing) {
                 return;
             }
+            if (back) {
+                echoserial = m.getSerial();
+            }
             outgoing.add(m);
             logger.debug("Notifying outgoing thread");
             outgoing.notifyAll();
         }
     }
 
+    /**
+     * Returns the name to send a message to the given destination from, if the message would be routed back to
+     * this connection, or null if it goes to someone else.
+     */
+    String getLocalSender(final String destination) {
+        return null;
+    }
+
+    /**
+     * Returns true if the bus delivers the given signal back to this connection, because one of the signal handlers
+     * of this connection matches it.
+     */
+    private boolean expectsEcho(final DBusSignal s) {
+        synchronized (handledSignals) {
+            for (final SignalTuple t : handledSignals.keySet()) {
+                if (s.getInterface().equals(t.type) && s.getName().equals(t.name)
+                        && (null == t.object || t.object.equals(s.getPath()))
+                        && (null == t.source || null != getLocalSender(t.source))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called for each message read. Once the last message queued to come back through the bus has arrived, messages
+     * to this connection may be dispatched locally again.
+     */
+    private void noteEcho(final Message m) {
+        if (0 == echoserial || m.getSerial() != echoserial || null == getLocalSender(m.getSource())) {
+            return;
+        }
+        final EfficientQueue lock = outgoing;
+        if (null == lock) {
+            return;
+        }
+        synchronized (lock) {
+            if (m.getSerial() == echoserial) {
+                echoserial = 0;
+            }
+        }
+    }
+
+    /**
+     * Hand a method call, reply or error addressed to this connection straight to the incoming side, instead of
+     * sending it through the bus and back. The receiver gets a copy parsed from the wire data, as if it had been
+     * read from the socket, so it never shares arguments with the sender.
+     * <p>
+     * While a signal sent by this connection is on its way back through the bus, messages to this connection go
+     * through the bus as well, so they cannot overtake the signal.
+     * </p>
+     *
+     * @return true if the message was dispatched locally.
+     */
+    private boolean dispatchLocal(final Message m) {
+        if (!(m instanceof MethodCall || m instanceof MethodReturn || m instanceof Error)) {
+            return false;
+        }
+        if (0 != echoserial) {
+            return false;
+        }
+        final String sender = getLocalSender(m.getDestination());
+        if (null == sender) {
+            return false;
+        }
+        logger.debug("Dispatching {} locally", m);
+        try {
+            if (m instanceof MethodCall) {
+                final MethodCall mc = (MethodCall) m;
+                if (0 == (m.getFlags() & Message.Flags.NO_REPLY_EXPECTED)) {
+                    final EfficientMap calls = pendingCalls;
+                    if (null == calls) {
+                        final Error err = new Error("org.freedesktop.DBus.Local",
+                                "org.freedesktop.DBus.Local.Disconnected", 0, "s",
+                                new Object[] { localize("Disconnected") });
+                        mc.setReply(err);
+                        failCallback(mc, err);
+                        return true;
+                    }
+                    synchronized (calls) {
+                        if (mc.isCancelled()) {
+                            return true;
+                        }
+                        calls.put(m.getSerial(), mc);
+                    }
+                } else if (mc.isCancelled()) {
+                    return true;
+                }
+                handleMessage((MethodCall) copyOf(m, sender));
+            } else if (m instanceof MethodReturn) {
+                handleMessage((MethodReturn) copyOf(m, sender));
+            } else {
+                handleMessage((Error) copyOf(m, sender));
+            }
+        } catch (final DBusException | IOException e) {
+            if (EXCEPTION_DEBUG) {
+                logger.error("Exception", e);
+            }
+            if (m instanceof MethodCall) {
+                final EfficientMap calls = pendingCalls;
+                if (null != calls) {
+                    synchronized (calls) {
+                        calls.remove(m.getSerial());
+                    }
+                }
+                try {
+                    final Error err = new Error(m,
+                            new DBusExecutionException(localize("Message Failed to Send: ") + e.getMessage()));
+                    ((MethodCall) m).setReply(err);
+                    failCallback((MethodCall) m, err);
+                } catch (final DBusException DBe) {
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a copy of the message as the receiving side would have read it off the wire, from the given sender.
+     */
+    private static Message copyOf(final Message m, final String sender) throws DBusException, IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final byte[] buf : m.getWireData()) {
+            if (null == buf) {
+                break;
+            }
+            out.write(buf);
+        }
+        final Message copy = new MessageReader(new ByteArrayInputStream(out.toByteArray())).readMessage();
+        copy.setSource(sender);
+        return copy;
+    }
+
+    /**
+     * Fail a message at once if the transport is being replaced and messages are not held meanwhile.
+     *
+     * @return true if the message was rejected.
+     */
+    private boolean rejectWhileReconnecting(final Message m) {
+        if (!reconnecting || holdoutgoing) {
+            return false;
+        }
+        logger.debug("Rejecting {} while reconnecting", m);
+        if (m instanceof MethodCall && 0 == (m.getFlags() & Message.Flags.NO_REPLY_EXPECTED)) {
+            try {
+                final Error err = new Error("org.freedesktop.DBus.Local", "org.freedesktop.DBus.Local.Disconnected", 0,
+                        "s", new Object[] { localize("Disconnected") });
+                ((MethodCall) m).setReply(err);
+                failCallback((MethodCall) m, err);
+            } catch (final DBusException DBe) {
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fail the callback waiting for the reply to a call with the given error, if there is one.
+     */
+    @SuppressWarnings("unchecked")
+    void failCallback(final MethodCall m, final Error err) {
+        final CallbackHandler<Object> cbh;
+        synchronized (pendingCallbacks) {
+            cbh = (CallbackHandler<Object>) pendingCallbacks.remove(m);
+            pendingCallbackReplys.remove(m);
+        }
+        if (null == cbh) {
+            return;
+        }
+        final boolean queued = getCallbackPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                cbh.handleError(err.getException());
+            }
+        });
+        if (!queued) {
+            logger.warn("Dropping error {} for {}: {} is full", err, m, getCallbackPool());
+        }
+    }
+
+    /**
+     * Queue several messages at once. No other message is queued in between, and the sender writes them together.
+     */
+    void queueOutgoing(final List<? extends Message> ms) {
+        final List<Message> remote = new ArrayList<>(ms.size());
+        for (final Message m : ms) {
+            if (!dispatchLocal(m)) {
+                remote.add(m);
+            }
+        }
+        if (remote.isEmpty()) {
+            return;
+        }
+        if (reconnecting && !holdoutgoing) {
+            for (final Message m : remote) {
+                rejectWhileReconnecting(m);
+            }
+            return;
+        }
+        final List<Message> back = new ArrayList<>();
+        if (0 != echoserial) {
+            for (final Message m : remote) {
+                if (null != getLocalSender(m.getDestination())) {
+                    back.add(m);
+                }
+            }
+        }
+        synchronized (outgoing) {
+            if (null == outgoing) {
+                return;
+            }
+            for (final Message m : remote) {
+                if (back.contains(m)) {
+                    echoserial = m.getSerial();
+                }
+                outgoing.add(m);
+            }
+            logger.debug("Notifying outgoing thread");
+            outgoing.notifyAll();
+        }
+    }
+
     /**
      * Remove a Signal Handler.
      * Stops listening for this signal.
@@ -629,15 +1181,24 @@ public abstract class AbstractConnection {
         }
 
         logger.info("Disconnecting Abstract Connection");
-        // run all pending tasks.
-        while (runnables.size() > 0) {
-            synchronized (runnables) {
-                runnables.notifyAll();
+        propertiesemitter.shutdown();
+        synchronized (this) {
+            if (null != scheduler) {
+                scheduler.shutdownNow();
+                scheduler = null;
             }
         }
+        // run all pending tasks.
+        methodpool.shutdown();
+        signalpool.shutdown();
+        callbackpool.shutdown();
+        for (final WorkerPool pool : interfacepools.values()) {
+            pool.shutdown();
+        }
 
         // stop the main thread
         _run = false;
+        setReconnecting(false, false);
 
         // unblock the sending thread.
         synchronized (outgoing) {
@@ -656,17 +1217,6 @@ public abstract class AbstractConnection {
             }
         }
 
-        // stop all the workers
-        synchronized (workers) {
-            for (final _workerthread t : workers) {
-                t.halt();
-            }
-        }
-
-        // make sure none are blocking on the runnables queue still
-        synchronized (runnables) {
-            runnables.notifyAll();
-        }
     }
 
     @Override
@@ -766,6 +1316,135 @@ public abstract class AbstractConnection {
         }
     }
 
+    /**
+     * Drop the replies kept for calls on a remote object marked with {@link DBusSingleFlight}, for example after a
+     * signal announced that they changed.
+     *
+     * @param object The remote object.
+     */
+    public void invalidateCachedReplies(final DBusInterface object) {
+        final RemoteObject ro = importedObjects.get(object);
+        if (null != ro) {
+            singleflight.invalidate(ro);
+        }
+    }
+
+    /**
+     * Drop the replies kept for all calls marked with {@link DBusSingleFlight}.
+     */
+    public void invalidateCachedReplies() {
+        singleflight.invalidate(null);
+    }
+
+    /**
+     * Returns a proxy for the same remote object as the given one, which waits at most the given time for the
+     * replies to its calls. The timeout applies to synchronous calls as well as to callbacks and futures.
+     *
+     * @param object A proxy for a remote object.
+     * @param timeout The timeout in ms, or 0 to use the timeouts set with {@link DBusTimeout} or the default.
+     * @return The proxy with the timeout.
+     */
+    @SuppressWarnings("unchecked")
+    public <I extends DBusInterface> I withTimeout(final I object, final long timeout) {
+        final RemoteObject ro = importedObjects.get(object);
+        if (null == ro) {
+            throw new DBusExecutionException(localize("Not a remote object: ") + object);
+        }
+        if (ro.timeout == timeout) {
+            return object;
+        }
+        return (I) getProxy(new RemoteObject(ro.busname, ro.objectpath, ro.iface, ro.autostart, timeout),
+                object.getClass().getInterfaces());
+    }
+
+    /**
+     * Cancel a call: it is not sent if it is still queued, and a late reply is dropped.
+     *
+     * @return The callback of the call, which will now not be called, or null.
+     */
+    CallbackHandler<?> cancelCall(final MethodCall call) {
+        if (null != pendingCalls) {
+            synchronized (pendingCalls) {
+                call.cancelled = true;
+                if (pendingCalls.contains(call.getSerial())) {
+                    pendingCalls.remove(call.getSerial());
+                    cancelledCalls.put(call.getSerial(), Boolean.TRUE);
+                }
+            }
+        }
+        synchronized (pendingCallbacks) {
+            pendingCallbackReplys.remove(call);
+            return pendingCallbacks.remove(call);
+        }
+    }
+
+    private boolean isCancelled(final long serial) {
+        synchronized (pendingCalls) {
+            return null != cancelledCalls.remove(serial);
+        }
+    }
+
+    /**
+     * Returns the executor running the deadlines of calls, started on first use.
+     */
+    synchronized ScheduledExecutorService getScheduler() {
+        if (null == scheduler) {
+            scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "DBus Timeouts");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            // drop a deadline as soon as its call has a reply, rather than keeping the call until it is due
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Start a batch of method calls, which are sent together and whose replies are collected in one future.
+     *
+     * @return A new, empty batch.
+     */
+    public DBusBatch batch() {
+        return new DBusBatch(this);
+    }
+
+    private void queueReply(final MethodCall m, final Method me, final Object result) throws DBusException {
+        MethodReturn reply;
+        final Type rt = Marshalling.getReplyType(me);
+        if (Void.TYPE.equals(rt)) {
+            reply = new MethodReturn(m, null);
+        } else {
+            final StringBuffer sb = new StringBuffer();
+            for (final String s : Marshalling.getDBusType(rt)) {
+                sb.append(s);
+            }
+            final Object[] nr = Marshalling.convertParameters(new Object[] { result }, new Type[] { rt }, this);
+
+            reply = new MethodReturn(m, sb.toString(), nr);
+        }
+        queueOutgoing(reply);
+    }
+
+    private void queueErrorReply(final MethodCall m, final Throwable e) {
+        if (EXCEPTION_DEBUG) {
+            logger.error("Exception", e);
+        }
+        try {
+            if (e instanceof DBusExecutionException) {
+                queueOutgoing(new Error(m, (DBusExecutionException) e));
+            } else {
+                queueOutgoing(new Error(m,
+                        new DBusExecutionException(MessageFormat.format(localize("Error Executing Method {0}.{1}: {2}"),
+                                new Object[] { m.getInterface(), m.getName(), e.getMessage() }))));
+            }
+        } catch (final DBusException DBe) {
+        }
+    }
+
     private void handleMessage(final MethodCall m) throws DBusException {
         logger.debug("Handling incoming method call: {}", m);
 
@@ -775,18 +1454,20 @@ public abstract class AbstractConnection {
 
         if (null == m.getInterface() || m.getInterface().equals("org.freedesktop.DBus.Peer")
                 || m.getInterface().equals("org.freedesktop.DBus.Introspectable")) {
-            synchronized (exportedObjects) {
-                eo = exportedObjects.get(null);
-            }
-            if (null != eo && null == eo.object.get()) {
-                unExportObject(null);
+            eo = globalhandler;
+            meth = eo.methods.get(new MethodTuple(m.getName(), m.getSig()));
+            if (null != meth) {
+                o = new _globalhandler(m.getPath());
+            } else {
                 eo = null;
             }
-            if (null != eo) {
-                meth = eo.methods.get(new MethodTuple(m.getName(), m.getSig()));
-            }
+        }
+        if (null == o && (null == m.getInterface() || "org.freedesktop.DBus.ObjectManager".equals(m.getInterface()))
+                && objectmanagers.contains(m.getPath())) {
+            eo = objectmanagerhandler;
+            meth = eo.methods.get(new MethodTuple(m.getName(), m.getSig()));
             if (null != meth) {
-                o = new _globalhandler(m.getPath());
+                o = new ExportedObjectManager(this, m.getPath());
             } else {
                 eo = null;
             }
@@ -794,17 +1475,14 @@ public abstract class AbstractConnection {
         if (null == o) {
             // now check for specific exported functions
 
-            synchronized (exportedObjects) {
-                eo = exportedObjects.get(m.getPath());
-            }
+            eo = objectTree.get(m.getPath());
             if (null != eo && null == eo.object.get()) {
-                logger.info("Unexporting {} implicitly", m.getPath());
-                unExportObject(m.getPath());
+                unExportCollected(m.getPath(), eo);
                 eo = null;
             }
 
             if (null == eo) {
-                eo = fallbackcontainer.get(m.getPath());
+                eo = objectTree.getFallback(m.getPath());
             }
 
             if (null == eo) {
@@ -828,7 +1506,11 @@ public abstract class AbstractConnection {
                 }
                 return;
             }
-            o = eo.object.get();
+            if (ExportedProperties.class.equals(meth.getDeclaringClass())) {
+                o = new ExportedProperties(this, eo, eo.object.get());
+            } else {
+                o = eo.object.get();
+            }
         }
 
         // now execute it
@@ -838,7 +1520,7 @@ public abstract class AbstractConnection {
         final DBusCallInfo info = new DBusCallInfo(m);
         final AbstractConnection conn = this;
         logger.trace("Adding Runnable for method {}", meth);
-        addRunnable(new Runnable() {
+        final Runnable r = new Runnable() {
             private boolean run = false;
 
             @Override
@@ -882,44 +1564,49 @@ public abstract class AbstractConnection {
                     synchronized (infomap) {
                         infomap.remove(Thread.currentThread());
                     }
-                    if (!noreply) {
-                        MethodReturn reply;
-                        if (Void.TYPE.equals(me.getReturnType())) {
-                            reply = new MethodReturn(m, null);
-                        } else {
-                            final StringBuffer sb = new StringBuffer();
-                            for (final String s : Marshalling.getDBusType(me.getGenericReturnType())) {
-                                sb.append(s);
+                    if (result instanceof CompletionStage
+                            && CompletionStage.class.isAssignableFrom(me.getReturnType())) {
+                        // the reply is sent once the stage completes, this worker is free again
+                        ((CompletionStage<?>) result).whenComplete(new BiConsumer<Object, Throwable>() {
+                            @Override
+                            public void accept(final Object value, Throwable e) {
+                                if (null == e) {
+                                    if (noreply) {
+                                        return;
+                                    }
+                                    try {
+                                        queueReply(m, me, value);
+                                        return;
+                                    } catch (final Throwable t) {
+                                        e = t;
+                                    }
+                                }
+                                if (e instanceof CompletionException && null != e.getCause()) {
+                                    e = e.getCause();
+                                }
+                                queueErrorReply(m, e);
                             }
-                            final Object[] nr = Marshalling.convertParameters(new Object[] { result },
-                                    new Type[] { me.getGenericReturnType() }, conn);
-
-                            reply = new MethodReturn(m, sb.toString(), nr);
-                        }
-                        conn.queueOutgoing(reply);
-                    }
-                } catch (final DBusExecutionException DBEe) {
-                    if (EXCEPTION_DEBUG) {
-                        logger.error("Exception", DBEe);
-                    }
-                    try {
-                        conn.queueOutgoing(new Error(m, DBEe));
-                    } catch (final DBusException DBe) {
+                        });
+                    } else if (!noreply) {
+                        queueReply(m, me, result);
                     }
                 } catch (final Throwable e) {
-                    if (EXCEPTION_DEBUG) {
-                        logger.error("Exception", e);
-                    }
-                    try {
-                        conn.queueOutgoing(new Error(m,
-                                new DBusExecutionException(
-                                        MessageFormat.format(localize("Error Executing Method {0}.{1}: {2}"),
-                                                new Object[] { m.getInterface(), m.getName(), e.getMessage() }))));
-                    } catch (final DBusException DBe) {
-                    }
+                    queueErrorReply(m, e);
                 }
             }
-        });
+        };
+        if (isInline(ob.getClass(), me)) {
+            r.run();
+            return;
+        }
+        final WorkerPool pool = getPoolForMethod(me);
+        if (!pool.execute(r) && !noreply) {
+            try {
+                queueOutgoing(new Error(m, new DBus.Error.LimitsExceeded(MessageFormat.format(
+                        localize("Too many calls waiting to be run by {0}"), new Object[] { pool.getName() }))));
+            } catch (final DBusException DBe) {
+            }
+        }
     }
 
     @SuppressWarnings({ "unchecked" })
@@ -950,8 +1637,7 @@ public abstract class AbstractConnection {
         }
         final AbstractConnection conn = this;
         for (final DBusSigHandler<? extends DBusSignal> h : v) {
-            logger.trace("Adding Runnable for signal {} with handler {}", s, h);
-            addRunnable(new Runnable() {
+            final Runnable r = new Runnable() {
                 private boolean run = false;
 
                 @Override
@@ -979,10 +1665,73 @@ public abstract class AbstractConnection {
                         }
                     }
                 }
-            });
+            };
+            if (isInline(h)) {
+                try {
+                    r.run();
+                } catch (final RuntimeException Re) {
+                    if (EXCEPTION_DEBUG) {
+                        logger.error("Exception", Re);
+                    }
+                }
+                continue;
+            }
+            logger.trace("Adding Runnable for signal {} with handler {}", s, h);
+            if (!signalpool.execute(r)) {
+                logger.warn("Dropping signal {} for handler {}: {} is full", s, h, signalpool);
+            }
         }
     }
 
+    private static boolean isInline(final DBusSigHandler<? extends DBusSignal> h) {
+        final Class<?> c = h.getClass();
+        Boolean inline = inlinehandlers.get(c);
+        if (null == inline) {
+            boolean b = c.isAnnotationPresent(DBusInline.class);
+            if (!b) {
+                // handle may be declared with a subclass of DBusSignal, so do not look it up by its parameter type
+                for (final Method m : c.getMethods()) {
+                    if ("handle".equals(m.getName()) && 1 == m.getParameterTypes().length
+                            && m.isAnnotationPresent(DBusInline.class)) {
+                        b = true;
+                        break;
+                    }
+                }
+            }
+            inline = b;
+            inlinehandlers.put(c, inline);
+        }
+        return inline;
+    }
+
+    /**
+     * Checks whether an exported method is marked @DBusInline, either on the interface or on the method of the
+     * class implementing it.
+     */
+    static boolean isInline(final Class<?> c, final Method meth) {
+        Map<Method, Boolean> methods = inlinemethods.get(c);
+        if (null == methods) {
+            methods = new ConcurrentHashMap<>();
+            final Map<Method, Boolean> old = inlinemethods.putIfAbsent(c, methods);
+            if (null != old) {
+                methods = old;
+            }
+        }
+        Boolean inline = methods.get(meth);
+        if (null == inline) {
+            boolean b = meth.isAnnotationPresent(DBusInline.class);
+            if (!b) {
+                try {
+                    b = c.getMethod(meth.getName(), meth.getParameterTypes()).isAnnotationPresent(DBusInline.class);
+                } catch (final NoSuchMethodException NSMe) {
+                }
+            }
+            inline = b;
+            methods.put(meth, inline);
+        }
+        return inline;
+    }
+
     private void handleMessage(final Error err) {
         logger.debug("Handling incoming error: {}", err);
         MethodCall m = null;
@@ -1008,7 +1757,7 @@ public abstract class AbstractConnection {
             if (null != cbh) {
                 final CallbackHandler<? extends Object> fcbh = cbh;
                 logger.trace("Adding Error Runnable with callback handler {}", fcbh);
-                addRunnable(new Runnable() {
+                final boolean queued = callbackpool.execute(new Runnable() {
                     private boolean run = false;
 
                     @Override
@@ -1036,8 +1785,13 @@ public abstract class AbstractConnection {
                         }
                     }
                 });
+                if (!queued) {
+                    logger.warn("Dropping callback for {}: {} is full", err, callbackpool);
+                }
             }
 
+        } else if (isCancelled(err.getReplySerial())) {
+            logger.debug("Dropping error to cancelled call {}", err.getReplySerial());
         } else {
             synchronized (pendingErrors) {
                 pendingErrors.addLast(err);
@@ -1072,7 +1826,7 @@ public abstract class AbstractConnection {
                 final CallbackHandler<Object> fcbh = (CallbackHandler<Object>) cbh;
                 final DBusAsyncReply<?> fasr = asr;
                 logger.trace("Adding Runnable for method {} with callback handler {}", fasr.getMethod(), fcbh);
-                addRunnable(new Runnable() {
+                final boolean queued = callbackpool.execute(new Runnable() {
                     private boolean run = false;
 
                     @Override
@@ -1101,8 +1855,13 @@ public abstract class AbstractConnection {
                         }
                     }
                 });
+                if (!queued) {
+                    logger.warn("Dropping callback for {}: {} is full", mr, callbackpool);
+                }
             }
 
+        } else if (isCancelled(mr.getReplySerial())) {
+            logger.debug("Dropping reply to cancelled call {}", mr.getReplySerial());
         } else {
             try {
                 queueOutgoing(new Error(mr, new DBusExecutionException(
@@ -1113,6 +1872,14 @@ public abstract class AbstractConnection {
     }
 
     protected void sendMessage(final Message m) {
+        sendMessage(m, true);
+    }
+
+    /**
+     * Send a message, optionally holding it back until a later message is sent with flush set.
+     */
+    void sendMessage(final Message m, final boolean flush) {
+        final Transport t = transport;
         try {
             if (!connected) {
                 throw new NotConnected(localize("Disconnected"));
@@ -1122,6 +1889,11 @@ public abstract class AbstractConnection {
             }
 
             if (m instanceof MethodCall) {
+                if (((MethodCall) m).isCancelled()) {
+                    logger.debug("Not sending cancelled call {}", m);
+                    t.mout.writeMessage(null, flush);
+                    return;
+                }
                 if (0 == (m.getFlags() & Message.Flags.NO_REPLY_EXPECTED)) {
                     if (null == pendingCalls) {
                         ((MethodCall) m).setReply(
@@ -1129,13 +1901,17 @@ public abstract class AbstractConnection {
                                         "s", new Object[] { localize("Disconnected") }));
                     } else {
                         synchronized (pendingCalls) {
+                            if (((MethodCall) m).isCancelled()) {
+                                t.mout.writeMessage(null, flush);
+                                return;
+                            }
                             pendingCalls.put(m.getSerial(), (MethodCall) m);
                         }
                     }
                 }
             }
 
-            transport.mout.writeMessage(m);
+            t.mout.writeMessage(m, flush);
 
         } catch (final Exception e) {
             if (EXCEPTION_DEBUG) {
@@ -1163,7 +1939,7 @@ public abstract class AbstractConnection {
                 }
             } else if (m instanceof MethodReturn) {
                 try {
-                    transport.mout.writeMessage(new Error(m, e));
+                    t.mout.writeMessage(new Error(m, e));
                 } catch (final IOException IOe) {
                     if (EXCEPTION_DEBUG) {
                         logger.error("Exception", IOe);
@@ -1175,18 +1951,72 @@ public abstract class AbstractConnection {
                 }
             }
             if (e instanceof IOException) {
-                disconnect();
+                connectionLost(t);
+            } else if (flush && connected) {
+                // still send the messages held back before this one
+                try {
+                    t.mout.writeMessage(null, true);
+                } catch (final IOException IOe) {
+                    if (EXCEPTION_DEBUG) {
+                        logger.error("Exception", IOe);
+                    }
+                    connectionLost(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when reading from or writing to a transport failed. Disconnects, unless a subclass recovers.
+     *
+     * @param failed The transport which failed.
+     */
+    void connectionLost(final Transport failed) {
+        disconnect();
+    }
+
+    /**
+     * Mark the transport as being replaced, or as usable again.
+     *
+     * @param reconnecting Whether the transport is being replaced.
+     * @param holdoutgoing Whether to keep messages queued meanwhile, instead of failing them.
+     */
+    void setReconnecting(final boolean reconnecting, final boolean holdoutgoing) {
+        synchronized (reconnectlock) {
+            this.reconnecting = reconnecting;
+            this.holdoutgoing = holdoutgoing;
+            reconnectlock.notifyAll();
+        }
+    }
+
+    /**
+     * Wait while the transport is being replaced. Reading resumes as soon as the new transport is connected, so
+     * the replies which restore the connection can be read, sending only once it has been restored.
+     */
+    private void awaitTransport(final boolean sending) {
+        if (!reconnecting) {
+            return;
+        }
+        synchronized (reconnectlock) {
+            while (_run && reconnecting && (sending || !connected)) {
+                if (sending) {
+                    logger.debug("Holding outgoing messages while reconnecting");
+                }
+                try {
+                    reconnectlock.wait();
+                } catch (final InterruptedException Ie) {
+                }
             }
         }
     }
 
-    private Message readIncoming() throws DBusException {
-        if (!connected) {
+    private Message readIncoming(final Transport t) throws DBusException {
+        if (!connected || null == t) {
             throw new NotConnected(localize("No transport present"));
         }
         Message m = null;
         try {
-            m = transport.min.readMessage();
+            m = t.min.readMessage();
         } catch (final IOException IOe) {
             throw new FatalDBusException(IOe.getMessage());
         }
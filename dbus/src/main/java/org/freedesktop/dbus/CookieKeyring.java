@@ -0,0 +1,233 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cached view of a DBUS_COOKIE_SHA1 keyring in ~/.dbus-keyrings.
+ * <p>
+ * The keyring file is only read again when its size, modification time or file key changes, so looking up
+ * a cookie usually costs a single stat. Servers reuse the cookie they added last while it is fresh instead
+ * of rewriting the keyring for every handshake.
+ * </p>
+ */
+class CookieKeyring {
+    private final Logger logger = LoggerFactory.getLogger(CookieKeyring.class);
+
+    private static final Map<String, CookieKeyring> keyrings = new HashMap<>();
+
+    static class Cookie {
+        final String id;
+        final long timestamp;
+        final String value;
+
+        public Cookie(final String id, final long timestamp, final String value) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Returns the keyring of the given context.
+     */
+    public static CookieKeyring get(final String context) {
+        synchronized (keyrings) {
+            CookieKeyring k = keyrings.get(context);
+            if (null == k) {
+                k = new CookieKeyring(context);
+                keyrings.put(context, k);
+            }
+            return k;
+        }
+    }
+
+    private final File keydir;
+    private final File file;
+    private final String context;
+    private long size = -1;
+    private FileTime modified = null;
+    private Object filekey = null;
+    private Map<String, Cookie> cookies = Collections.emptyMap();
+    /** The cookie last added by this process */
+    private Cookie own = null;
+
+    private CookieKeyring(final String context) {
+        this.context = context;
+        keydir = new File(System.getProperty("user.home") + "/.dbus-keyrings/");
+        file = new File(keydir, context);
+    }
+
+    /**
+     * Read the keyring again if the file has changed since it was last read.
+     */
+    private void refresh() throws IOException {
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (final NoSuchFileException NSFe) {
+            cookies = Collections.emptyMap();
+            size = -1;
+            modified = null;
+            filekey = null;
+            return;
+        }
+        if (size == attrs.size() && attrs.lastModifiedTime().equals(modified)
+                && (null == filekey ? null == attrs.fileKey() : filekey.equals(attrs.fileKey()))) {
+            return;
+        }
+        logger.debug("Reading keyring {}", file);
+        final Map<String, Cookie> read = new HashMap<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
+            String s = null;
+            while (null != (s = r.readLine())) {
+                final String[] line = s.split(" ");
+                if (3 != line.length) {
+                    continue;
+                }
+                try {
+                    read.put(line[0], new Cookie(line[0], Long.parseLong(line[1]), line[2]));
+                } catch (final NumberFormatException NFe) {
+                    logger.debug("Ignoring invalid line in keyring {}", file);
+                }
+            }
+        }
+        cookies = read;
+        // the attributes from before reading, so a change while reading is picked up next time
+        size = attrs.size();
+        modified = attrs.lastModifiedTime();
+        filekey = attrs.fileKey();
+    }
+
+    /**
+     * Returns the cookie with the given ID, or null if there is no valid one.
+     */
+    public synchronized String find(final String ID) throws IOException {
+        refresh();
+        final Cookie c = cookies.get(ID);
+        if (null == c) {
+            return null;
+        }
+        final long now = System.currentTimeMillis() / 1000;
+        if (c.timestamp < 0 || now + Transport.SASL.MAX_TIME_TRAVEL_SECONDS < c.timestamp
+                || now - Transport.SASL.EXPIRE_KEYS_TIMEOUT_SECONDS > c.timestamp) {
+            return null;
+        }
+        return c.value;
+    }
+
+    /**
+     * Returns the cookie this process added last, if it is still in the keyring and fresh enough for clients
+     * to find it before other servers expire it. Returns null if a new cookie should be added.
+     */
+    public synchronized Cookie getOwn() throws IOException {
+        if (null == own || System.currentTimeMillis() / 1000 - own.timestamp >= Transport.SASL.COOKIE_TIMEOUT / 2) {
+            return null;
+        }
+        refresh();
+        final Cookie c = cookies.get(own.id);
+        if (null == c || !own.value.equals(c.value)) {
+            return null;
+        }
+        return own;
+    }
+
+    /**
+     * Add a cookie to the keyring, expiring stale ones.
+     */
+    public synchronized void add(final String ID, final long timestamp, final String cookie) throws IOException {
+        final File lock = new File(keydir, context + ".lock");
+        final File temp = new File(keydir, context + ".temp");
+
+        // ensure directory exists
+        if (!keydir.exists()) {
+            keydir.mkdirs();
+        }
+
+        // acquire lock, taking it over once it is older than LOCK_TIMEOUT
+        final long start = System.currentTimeMillis();
+        while (!lock.createNewFile() && Transport.SASL.LOCK_TIMEOUT > System.currentTimeMillis() - start) {
+            try {
+                Thread.sleep(Transport.SASL.LOCK_RETRY);
+            } catch (final InterruptedException Ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        try {
+            // read old file
+            final Vector<String> lines = new Vector<>();
+            if (file.exists()) {
+                try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
+                    String s = null;
+                    while (null != (s = r.readLine())) {
+                        final String[] line = s.split(" ");
+                        if (3 != line.length) {
+                            continue;
+                        }
+                        final long time;
+                        try {
+                            time = Long.parseLong(line[1]);
+                        } catch (final NumberFormatException NFe) {
+                            logger.debug("Dropping invalid line from keyring {}", file);
+                            continue;
+                        }
+                        // expire stale cookies
+                        if (timestamp - time < Transport.SASL.COOKIE_TIMEOUT) {
+                            lines.add(s);
+                        }
+                    }
+                }
+            }
+
+            // add cookie
+            lines.add(ID + " " + timestamp + " " + cookie);
+
+            // write temp file
+            try (PrintWriter w = new PrintWriter(new FileOutputStream(temp))) {
+                for (final String l : lines) {
+                    w.println(l);
+                }
+            }
+
+            // atomically move to old file
+            if (!temp.renameTo(file)) {
+                file.delete();
+                temp.renameTo(file);
+            }
+        } finally {
+            // remove lock
+            lock.delete();
+        }
+
+        own = new Cookie(ID, timestamp, cookie);
+    }
+}
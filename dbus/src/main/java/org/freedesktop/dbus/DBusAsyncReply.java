@@ -117,6 +117,26 @@ public class DBusAsyncReply<ReturnType> {
         }
     }
 
+    /**
+     * Cancel the call. It is not sent if it is still queued, its reply is dropped, and {@link #getReply()} throws
+     * NoReply from now on unless the reply had already arrived.
+     */
+    public void cancel() {
+        conn.cancelCall(mc);
+        synchronized (this) {
+            if (!mc.hasReply() && null == error) {
+                error = new NoReply(localize("Call was cancelled"));
+            }
+        }
+    }
+
+    /**
+     * Returns true if the call has been cancelled.
+     */
+    public boolean isCancelled() {
+        return mc.isCancelled();
+    }
+
     @Override
     public String toString() {
         return localize("Waiting for: ") + mc;
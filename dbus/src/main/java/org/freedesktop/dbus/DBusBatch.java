@@ -0,0 +1,319 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext.localize;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.freedesktop.dbus.exceptions.NotConnected;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of method calls sent together.
+ * <p>
+ * All calls added with {@link #call(DBusInterface, String, Object...)} are queued at once by {@link #execute()},
+ * so they leave in one write and their replies are awaited concurrently. The returned future completes when every
+ * call has had its reply, with one {@link Result} per call in the order the calls were added. A failing call does
+ * not fail the others. Each call fails with NoReply once its timeout has passed, as for a call through its proxy.
+ * Cancelling the future cancels the calls still waiting for their replies.
+ * </p>
+ */
+public class DBusBatch {
+    private final Logger logger = LoggerFactory.getLogger(DBusBatch.class);
+
+    /**
+     * The outcome of one call of a batch.
+     */
+    public static class Result {
+        private final Object value;
+        private final DBusExecutionException error;
+
+        Result(final Object value, final DBusExecutionException error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        /**
+         * Returns the return value of the call.
+         *
+         * @throws DBusExecutionException If the call failed.
+         */
+        public Object getValue() throws DBusExecutionException {
+            if (null != error) {
+                throw error;
+            }
+            return value;
+        }
+
+        /**
+         * Returns the error the call failed with, or null if it succeeded.
+         */
+        public DBusExecutionException getError() {
+            return error;
+        }
+
+        public boolean isError() {
+            return null != error;
+        }
+
+        @Override
+        public String toString() {
+            return null == error ? "Result(" + value + ")" : "Result(" + error + ")";
+        }
+    }
+
+    /** A call waiting to be sent, or the reason it could not be built */
+    private static class Entry {
+        final MethodCall call;
+        final Method method;
+        final long timeout;
+        final DBusExecutionException error;
+        /** The task failing the call once its timeout has passed, if any */
+        volatile ScheduledFuture<?> deadline = null;
+
+        public Entry(final MethodCall call, final Method method, final long timeout,
+                final DBusExecutionException error) {
+            this.call = call;
+            this.method = method;
+            this.timeout = timeout;
+            this.error = error;
+        }
+    }
+
+    private final AbstractConnection conn;
+    private final List<Entry> entries = new ArrayList<>();
+
+    DBusBatch(final AbstractConnection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Add a call to the batch.
+     *
+     * @param object The remote object on which to call the method.
+     * @param m The name of the method on the interface to call.
+     * @param parameters The parameters to call the method with.
+     * @return This batch.
+     */
+    public DBusBatch call(final DBusInterface object, final String m, final Object... parameters) {
+        final Class<?>[] types = new Class<?>[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            types[i] = parameters[i].getClass();
+        }
+        final RemoteObject ro = conn.importedObjects.get(object);
+        Entry e;
+        try {
+            if (null == ro) {
+                throw new DBusExecutionException(localize("Not a remote object: ") + object);
+            }
+            Method me;
+            if (null == ro.iface) {
+                me = object.getClass().getMethod(m, types);
+            } else {
+                me = ro.iface.getMethod(m, types);
+            }
+            e = new Entry(
+                    RemoteInvocationHandler.createCall(ro, me, conn, RemoteInvocationHandler.CALL_TYPE_CALLBACK,
+                            parameters),
+                    me, RemoteInvocationHandler.getTimeout(ro, me), null);
+        } catch (final DBusExecutionException DBEe) {
+            if (AbstractConnection.EXCEPTION_DEBUG) {
+                logger.error("Exception", DBEe);
+            }
+            e = new Entry(null, null, 0, DBEe);
+        } catch (final Exception ex) {
+            if (AbstractConnection.EXCEPTION_DEBUG) {
+                logger.error("Exception", ex);
+            }
+            e = new Entry(null, null, 0, new DBusExecutionException(ex.getMessage()));
+        }
+        synchronized (entries) {
+            entries.add(e);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the number of calls in the batch.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Send all calls added so far and empty the batch.
+     *
+     * @return A future which completes once all calls have had their replies, with their results in order.
+     */
+    public CompletableFuture<List<Result>> execute() {
+        final Entry[] es;
+        synchronized (entries) {
+            es = entries.toArray(new Entry[entries.size()]);
+            entries.clear();
+        }
+        final CompletableFuture<List<Result>> future = new CompletableFuture<>();
+        final List<MethodCall> calls = new ArrayList<>();
+        final List<Entry> sent = new ArrayList<>();
+        for (final Entry e : es) {
+            if (null != e.call) {
+                calls.add(e.call);
+                sent.add(e);
+            }
+        }
+        if (calls.isEmpty()) {
+            complete(es, future);
+            return future;
+        }
+        if (null == conn.outgoing) {
+            future.completeExceptionally(new NotConnected(localize("Not Connected")));
+            return future;
+        }
+        final AtomicInteger remaining = new AtomicInteger(calls.size());
+        final Runnable replied = new Runnable() {
+            @Override
+            public void run() {
+                if (0 != remaining.decrementAndGet()) {
+                    return;
+                }
+                // the last reply arrived on the reader, convert the replies on a worker
+                final boolean queued = conn.getCallbackPool().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        complete(es, future);
+                    }
+                });
+                if (!queued) {
+                    complete(es, future);
+                }
+            }
+        };
+        for (final Entry e : sent) {
+            if (0 != (e.call.getFlags() & Message.Flags.NO_REPLY_EXPECTED)) {
+                replied.run();
+            } else {
+                whenReplied(e, replied);
+            }
+        }
+        future.whenComplete(new BiConsumer<List<Result>, Throwable>() {
+            @Override
+            public void accept(final List<Result> results, final Throwable t) {
+                if (future.isCancelled()) {
+                    cancel(sent);
+                }
+            }
+        });
+        conn.queueOutgoing(calls);
+        return future;
+    }
+
+    /**
+     * Run a task once a call has its reply, or has failed with NoReply because its deadline passed.
+     */
+    private void whenReplied(final Entry e, final Runnable replied) {
+        if (e.timeout <= 0) {
+            e.call.whenReplied(replied);
+            return;
+        }
+        final Runnable expire = new Runnable() {
+            @Override
+            public void run() {
+                conn.cancelCall(e.call);
+                try {
+                    e.call.setReplyIfAbsent(new Error("org.freedesktop.DBus.Local",
+                            "org.freedesktop.DBus.Error.NoReply", e.call.getSerial(), "s",
+                            new Object[] { localize("No reply within specified time") }));
+                } catch (final DBusException DBe) {
+                    if (AbstractConnection.EXCEPTION_DEBUG) {
+                        logger.error("Exception", DBe);
+                    }
+                }
+            }
+        };
+        ScheduledFuture<?> task;
+        try {
+            task = conn.getScheduler().schedule(expire, e.timeout, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException REe) {
+            // disconnected, the call fails anyway
+            task = null;
+        }
+        final ScheduledFuture<?> deadline = task;
+        e.deadline = deadline;
+        e.call.whenReplied(new Runnable() {
+            @Override
+            public void run() {
+                if (null != deadline) {
+                    deadline.cancel(false);
+                }
+                replied.run();
+            }
+        });
+    }
+
+    /**
+     * Cancel the calls of a cancelled batch, so those still queued are not sent and no replies are awaited.
+     */
+    private void cancel(final List<Entry> sent) {
+        for (final Entry e : sent) {
+            conn.cancelCall(e.call);
+            final ScheduledFuture<?> deadline = e.deadline;
+            if (null != deadline) {
+                deadline.cancel(false);
+            }
+        }
+    }
+
+    private void complete(final Entry[] es, final CompletableFuture<List<Result>> future) {
+        final Result[] results = new Result[es.length];
+        for (int i = 0; i < es.length; i++) {
+            final Entry e = es[i];
+            if (null != e.error) {
+                results[i] = new Result(null, e.error);
+                continue;
+            }
+            final Message reply = e.call.reply;
+            if (null == reply) {
+                // sent without expecting a reply
+                results[i] = new Result(null, null);
+            } else if (reply instanceof Error) {
+                results[i] = new Result(null, ((Error) reply).getException());
+            } else {
+                try {
+                    results[i] = new Result(RemoteInvocationHandler.convertRV(reply.getSig(), reply.getParameters(),
+                            e.method, conn), null);
+                } catch (final DBusExecutionException DBEe) {
+                    results[i] = new Result(null, DBEe);
+                } catch (final DBusException DBe) {
+                    if (AbstractConnection.EXCEPTION_DEBUG) {
+                        logger.error("Exception", DBe);
+                    }
+                    results[i] = new Result(null, new DBusExecutionException(DBe.getMessage()));
+                }
+            }
+        }
+        future.complete(Arrays.asList(results));
+    }
+}
@@ -17,17 +17,25 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.lang.reflect.Proxy;
 import java.text.MessageFormat;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.freedesktop.DBus;
 import org.freedesktop.dbus.exceptions.DBusException;
@@ -183,27 +191,149 @@ public class DBusConnection extends AbstractConnection {
                 try {
                     final Error err = new Error("org.freedesktop.DBus.Local", "org.freedesktop.DBus.Local.Disconnected",
                             0, "s", new Object[] { localize("Disconnected") });
-                    if (null != pendingCalls) {
-                        synchronized (pendingCalls) {
-                            final long[] set = pendingCalls.getKeys();
-                            for (final long l : set) {
-                                if (-1 != l) {
-                                    final MethodCall m = pendingCalls.remove(l);
-                                    if (null != m) {
-                                        m.setReply(err);
-                                    }
-                                }
-                            }
-                        }
-                    }
+                    failPendingCalls(err);
                     synchronized (pendingErrors) {
                         pendingErrors.add(err);
                     }
                 } catch (final DBusException DBe) {
                 }
             } else if (s instanceof org.freedesktop.DBus.NameAcquired) {
-                busnames.add(((org.freedesktop.DBus.NameAcquired) s).name);
+                final String name = ((org.freedesktop.DBus.NameAcquired) s).name;
+                synchronized (busnames) {
+                    if (!busnames.contains(name)) {
+                        busnames.add(name);
+                    }
+                }
+            } else if (s instanceof org.freedesktop.DBus.NameLost) {
+                // calls to the name must not be answered locally any more
+                final String name = ((org.freedesktop.DBus.NameLost) s).name;
+                if (!name.startsWith(":")) {
+                    busnames.remove(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches the unique names owning well known bus names.
+     * The cache is kept current by watching the NameOwnerChanged signal, so resolving a cached name does not
+     * need a call to the bus.
+     */
+    public class NameOwnerCache {
+        private final Map<String, String> owners = new ConcurrentHashMap<>();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        /** Number of owner changes seen, used to detect a change racing with a lookup. Changed with owners held */
+        private volatile long changes = 0;
+
+        /**
+         * Returns the unique name currently owning the given bus name.
+         *
+         * @param busname A well known or unique bus name.
+         * @return The unique name of the owner.
+         * @throws DBusException If watching the owners of bus names failed.
+         * @throws DBusExecutionException If the name has no owner.
+         */
+        public String getOwner(final String busname) throws DBusException {
+            String owner = owners.get(busname);
+            if (null != owner) {
+                hits.incrementAndGet();
+                return owner;
+            }
+            misses.incrementAndGet();
+            watchNameOwners();
+            final long before = changes;
+            owner = _dbus.GetNameOwner(busname);
+            // replies and signals are handled in order, so a change of owner since the call is visible here
+            synchronized (owners) {
+                if (before == changes) {
+                    owners.put(busname, owner);
+                }
+            }
+            return owner;
+        }
+
+        /**
+         * Forget the cached owner of the given bus name, so the next lookup asks the bus.
+         *
+         * @param busname The bus name.
+         */
+        public void refresh(final String busname) {
+            synchronized (owners) {
+                changes++;
+                owners.remove(busname);
+            }
+        }
+
+        /**
+         * Forget all cached owners.
+         */
+        public void refresh() {
+            synchronized (owners) {
+                changes++;
+                owners.clear();
+            }
+        }
+
+        void handle(final DBus.NameOwnerChanged noc) {
+            synchronized (owners) {
+                changes++;
+                if (null == noc.new_owner || "".equals(noc.new_owner)) {
+                    owners.remove(noc.name);
+                } else if (owners.containsKey(noc.name)) {
+                    owners.put(noc.name, noc.new_owner);
+                }
+            }
+        }
+
+        /**
+         * Returns the number of lookups answered from the cache.
+         */
+        public long getHitCount() {
+            return hits.get();
+        }
+
+        /**
+         * Returns the number of lookups which had to ask the bus.
+         */
+        public long getMissCount() {
+            return misses.get();
+        }
+
+        /**
+         * Returns the fraction of lookups answered from the cache, or 0 if there were none.
+         */
+        public double getHitRate() {
+            final long h = hits.get();
+            final long total = h + misses.get();
+            return 0 == total ? 0 : (double) h / total;
+        }
+
+        /**
+         * Returns the number of bus names with a cached owner.
+         */
+        public int size() {
+            return owners.size();
+        }
+    }
+
+    /**
+     * Drops cached data about bus names when their owner changes.
+     */
+    private class _ownerhandler implements DBusSigHandler<DBus.NameOwnerChanged> {
+        @Override
+        @DBusInline
+        public void handle(final DBus.NameOwnerChanged noc) {
+            if (noc.name.startsWith(":") && (null == noc.new_owner || "".equals(noc.new_owner))) {
+                // unique names are never reused, so their cached data is only dropped when they go away
+                synchronized (introspectioncache) {
+                    introspectionchanges++;
+                    if (null != introspectioncache.remove(noc.name)) {
+                        logger.debug("Dropped cached introspection data of {}", noc.name);
+                    }
+                }
             }
+            nameowners.handle(noc);
         }
     }
 
@@ -224,27 +354,89 @@ public class DBusConnection extends AbstractConnection {
     private int _refcount = 0;
     private final Object _reflock = new Object();
     private final DBus _dbus;
+    /**
+     * Interfaces of remote objects found by introspection, by unique name of their owner and object path; changed
+     * with the map locked
+     */
+    private final Map<String, Map<String, Class<?>[]>> introspectioncache = new ConcurrentHashMap<>();
+    /** Number of times cached introspection data was dropped, used to detect a drop racing with introspection */
+    private long introspectionchanges = 0;
+    private final Object ownerlock = new Object();
+    private _ownerhandler ownerhandler;
+    /** Open object manager caches, which know the interfaces of the objects below them without introspecting */
+    private final List<ObjectManagerCache> objectmanagercaches = new CopyOnWriteArrayList<>();
+    private final NameOwnerCache nameowners = new NameOwnerCache();
+    private volatile ReconnectPolicy reconnectpolicy = null;
+    /** Match rules added on the bus, to add them again after reconnecting */
+    private final Set<String> matchrules = Collections.synchronizedSet(new LinkedHashSet<String>());
+
+    /** A connection being set up, shared by everyone asking for the same address meanwhile */
+    private static class PendingConnection {
+        final CompletableFuture<DBusConnection> future = new CompletableFuture<>();
+        /** References to hand out once the connection is up, guarded by conn */
+        int references = 1;
+    }
+
+    /** Connections being set up, by address, guarded by conn */
+    private static final Map<String, PendingConnection> connecting = new HashMap<>();
 
     /**
      * Connect to the BUS. If a connection already exists to the specified Bus, a reference to it is returned.
+     * If the connection is being set up by another thread, this waits for it.
      *
      * @param address The address of the bus to connect to
      * @throws DBusException If there is a problem connecting to the Bus.
      */
     public static DBusConnection getConnection(final String address) throws DBusException {
+        final PendingConnection shared;
+        final PendingConnection p;
         synchronized (conn) {
-            DBusConnection c = conn.get(address);
+            final DBusConnection c = conn.get(address);
             if (null != c) {
                 synchronized (c._reflock) {
                     c._refcount++;
                 }
                 return c;
+            }
+            shared = connecting.get(address);
+            if (null != shared) {
+                shared.references++;
+                p = null;
             } else {
-                c = new DBusConnection(address);
-                conn.put(address, c);
-                return c;
+                p = new PendingConnection();
+                connecting.put(address, p);
             }
         }
+        if (null != shared) {
+            return await(shared.future);
+        }
+        // the global lock is not held while connecting, so other busses are not held up by this one
+        LOGGER.debug("Creating new bus connection to: {}", address);
+        final DBusConnection c;
+        try {
+            c = new DBusConnection(address);
+        } catch (final DBusException DBe) {
+            synchronized (conn) {
+                connecting.remove(address);
+            }
+            p.future.completeExceptionally(DBe);
+            throw DBe;
+        } catch (final RuntimeException Re) {
+            synchronized (conn) {
+                connecting.remove(address);
+            }
+            p.future.completeExceptionally(Re);
+            throw Re;
+        }
+        synchronized (conn) {
+            connecting.remove(address);
+            synchronized (c._reflock) {
+                c._refcount = p.references;
+            }
+            conn.put(address, c);
+        }
+        p.future.complete(c);
+        return c;
     }
 
     /**
@@ -256,79 +448,163 @@ public class DBusConnection extends AbstractConnection {
      * @throws DBusException If there is a problem connecting to the Bus.
      */
     public static DBusConnection getConnection(final int bustype) throws DBusException {
+        return getConnection(getBusAddress(bustype));
+    }
+
+    /**
+     * Connect to the BUS without blocking the calling thread.
+     * If a connection already exists to the specified Bus, the future is completed with a reference to it.
+     *
+     * @param address The address of the bus to connect to
+     * @return A future completed with the connection, or with the DBusException if connecting failed.
+     */
+    public static CompletableFuture<DBusConnection> connectAsync(final String address) {
         synchronized (conn) {
-            String s = null;
-            switch (bustype) {
-                case SYSTEM:
-                    s = System.getenv("DBUS_SYSTEM_BUS_ADDRESS");
-                    if (null == s) {
-                        s = DEFAULT_SYSTEM_BUS_ADDRESS;
+            final DBusConnection c = conn.get(address);
+            if (null != c) {
+                synchronized (c._reflock) {
+                    c._refcount++;
+                }
+                return CompletableFuture.completedFuture(c);
+            }
+        }
+        final CompletableFuture<DBusConnection> future = new CompletableFuture<>();
+        startConnecting(future, new Callable<String>() {
+            @Override
+            public String call() {
+                return address;
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Connect to the BUS without blocking the calling thread.
+     * The bus address is resolved in the background as well.
+     *
+     * @param bustype The Bus to connect to.
+     * @return A future completed with the connection, or with the DBusException if connecting failed.
+     * @see #SYSTEM
+     * @see #SESSION
+     */
+    public static CompletableFuture<DBusConnection> connectAsync(final int bustype) {
+        final CompletableFuture<DBusConnection> future = new CompletableFuture<>();
+        startConnecting(future, new Callable<String>() {
+            @Override
+            public String call() throws DBusException {
+                return getBusAddress(bustype);
+            }
+        });
+        return future;
+    }
+
+    private static void startConnecting(final CompletableFuture<DBusConnection> future,
+            final Callable<String> address) {
+        final Thread t = new Thread("DBus Connect") {
+            @Override
+            public void run() {
+                try {
+                    future.complete(getConnection(address.call()));
+                } catch (final Exception e) {
+                    if (EXCEPTION_DEBUG) {
+                        LOGGER.error("Exception", e);
                     }
-                    break;
-                case SESSION:
-                    s = System.getenv("DBUS_SESSION_BUS_ADDRESS");
-                    if (null == s) {
-                        // address gets stashed in $HOME/.dbus/session-bus/`dbus-uuidgen --get`-`sed 's/:\(.\)\..*/\1/'
-                        // <<< $DISPLAY`
-                        final String display = System.getenv("DISPLAY");
-                        if (null == display) {
-                            throw new DBusException(localize("Cannot Resolve Session Bus Address"));
+                    future.completeExceptionally(e);
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Wait for a connection being set up by another thread.
+     */
+    private static DBusConnection await(final CompletableFuture<DBusConnection> future) throws DBusException {
+        try {
+            return future.join();
+        } catch (final CompletionException CEe) {
+            final Throwable t = CEe.getCause();
+            if (t instanceof DBusException) {
+                throw (DBusException) t;
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            throw new DBusException(localize("Failed to connect to bus ") + t.getMessage());
+        }
+    }
+
+    /**
+     * Open a new connection to the bus, which is not shared with getConnection.
+     */
+    static DBusConnection newConnection(final String address) throws DBusException {
+        return new DBusConnection(address);
+    }
+
+    /**
+     * Returns the address of the given bus.
+     */
+    static String getBusAddress(final int bustype) throws DBusException {
+        String s = null;
+        switch (bustype) {
+            case SYSTEM:
+                s = System.getenv("DBUS_SYSTEM_BUS_ADDRESS");
+                if (null == s) {
+                    s = DEFAULT_SYSTEM_BUS_ADDRESS;
+                }
+                break;
+            case SESSION:
+                s = System.getenv("DBUS_SESSION_BUS_ADDRESS");
+                if (null == s) {
+                    // address gets stashed in $HOME/.dbus/session-bus/`dbus-uuidgen --get`-`sed 's/:\(.\)\..*/\1/'
+                    // <<< $DISPLAY`
+                    final String display = System.getenv("DISPLAY");
+                    if (null == display) {
+                        throw new DBusException(localize("Cannot Resolve Session Bus Address"));
+                    }
+                    final File uuidfile = new File("/var/lib/dbus/machine-id");
+                    if (!uuidfile.exists()) {
+                        throw new DBusException(localize("Cannot Resolve Session Bus Address"));
+                    }
+                    try {
+                        final String uuid;
+                        try (BufferedReader readerUuidFile = new BufferedReader(new FileReader(uuidfile))) {
+                            uuid = readerUuidFile.readLine();
                         }
-                        final File uuidfile = new File("/var/lib/dbus/machine-id");
-                        if (!uuidfile.exists()) {
+
+                        final String homedir = System.getProperty("user.home");
+                        final File addressfile = new File(homedir + "/.dbus/session-bus",
+                                uuid + "-" + display.replaceAll(":([0-9]*)\\..*", "$1"));
+                        if (!addressfile.exists()) {
                             throw new DBusException(localize("Cannot Resolve Session Bus Address"));
                         }
-                        try {
-                            final String uuid;
-                            try (BufferedReader readerUuidFile = new BufferedReader(new FileReader(uuidfile))) {
-                                uuid = readerUuidFile.readLine();
-                            }
-
-                            final String homedir = System.getProperty("user.home");
-                            final File addressfile = new File(homedir + "/.dbus/session-bus",
-                                    uuid + "-" + display.replaceAll(":([0-9]*)\\..*", "$1"));
-                            if (!addressfile.exists()) {
-                                throw new DBusException(localize("Cannot Resolve Session Bus Address"));
-                            }
-                            try (BufferedReader readerAddressFile = new BufferedReader(new FileReader(addressfile))) {
-                                String l;
-                                while (null != (l = readerAddressFile.readLine())) {
-                                    LOGGER.trace("Reading D-Bus session data: {}", l);
-                                    if (l.matches("DBUS_SESSION_BUS_ADDRESS.*")) {
-                                        s = l.replaceAll("^[^=]*=", "");
-                                        LOGGER.trace("Parsing {} to {}", l, s);
-                                    }
+                        try (BufferedReader readerAddressFile = new BufferedReader(new FileReader(addressfile))) {
+                            String l;
+                            while (null != (l = readerAddressFile.readLine())) {
+                                LOGGER.trace("Reading D-Bus session data: {}", l);
+                                if (l.matches("DBUS_SESSION_BUS_ADDRESS.*")) {
+                                    s = l.replaceAll("^[^=]*=", "");
+                                    LOGGER.trace("Parsing {} to {}", l, s);
                                 }
                             }
-                            if (null == s || "".equals(s)) {
-                                throw new DBusException(localize("Cannot Resolve Session Bus Address"));
-                            }
-                            LOGGER.info("Read bus address {} from file {}", s, addressfile);
-                        } catch (final Exception e) {
-                            if (EXCEPTION_DEBUG) {
-                                LOGGER.error("Exception", e);
-                            }
+                        }
+                        if (null == s || "".equals(s)) {
                             throw new DBusException(localize("Cannot Resolve Session Bus Address"));
                         }
+                        LOGGER.info("Read bus address {} from file {}", s, addressfile);
+                    } catch (final Exception e) {
+                        if (EXCEPTION_DEBUG) {
+                            LOGGER.error("Exception", e);
+                        }
+                        throw new DBusException(localize("Cannot Resolve Session Bus Address"));
                     }
-                    break;
-                default:
-                    throw new DBusException(localize("Invalid Bus Type: ") + bustype);
-            }
-            DBusConnection c = conn.get(s);
-            LOGGER.trace("Getting bus connection for {}: {}", s, c);
-            if (null != c) {
-                synchronized (c._reflock) {
-                    c._refcount++;
                 }
-                return c;
-            } else {
-                LOGGER.debug("Creating new bus connection to: {}", s);
-                c = new DBusConnection(s);
-                conn.put(s, c);
-                return c;
-            }
+                break;
+            default:
+                throw new DBusException(localize("Invalid Bus Type: ") + bustype);
         }
+        return s;
     }
 
     private DBusConnection(final String address) throws DBusException {
@@ -363,6 +639,7 @@ public class DBusConnection extends AbstractConnection {
         final DBusSigHandler<DBusSignal> h = new _sighandler();
         addSigHandlerWithoutMatch(org.freedesktop.DBus.Local.Disconnected.class, h);
         addSigHandlerWithoutMatch(org.freedesktop.DBus.NameAcquired.class, h);
+        addSigHandlerWithoutMatch(org.freedesktop.DBus.NameLost.class, h);
 
         // register ourselves
         _dbus = getRemoteObject("org.freedesktop.DBus", "/org/freedesktop/DBus", DBus.class);
@@ -372,54 +649,288 @@ public class DBusConnection extends AbstractConnection {
             if (EXCEPTION_DEBUG) {
                 logger.error("Exception", DBEe);
             }
+            disconnect();
             throw new DBusException(DBEe.getMessage());
         }
     }
 
-    DBusInterface dynamicProxy(final String source, final String path) throws DBusException {
-        logger.info("Introspecting {} on {} for dynamic proxy creation", path, source);
-        try {
-            final DBus.Introspectable intro = getRemoteObject(source, path, DBus.Introspectable.class);
-            final String data = intro.Introspect();
-            logger.trace("Got introspection data: {}", data);
-            final String[] tags = data.split("[<>]");
-            final Vector<String> ifaces = new Vector<>();
-            for (final String tag : tags) {
-                if (tag.startsWith("interface")) {
-                    ifaces.add(tag.replaceAll("^interface *name *= *['\"]([^'\"]*)['\"].*$", "$1"));
+    /**
+     * Fail all calls waiting for a reply with the given error, including their callbacks.
+     */
+    private void failPendingCalls(final Error err) {
+        failPendingCalls(pendingCalls, err);
+    }
+
+    private void failPendingCalls(final EfficientMap calls, final Error err) {
+        if (null == calls) {
+            return;
+        }
+        final List<MethodCall> failed = new ArrayList<>();
+        synchronized (calls) {
+            final long[] set = calls.getKeys();
+            for (final long l : set) {
+                if (-1 != l) {
+                    final MethodCall m = calls.remove(l);
+                    if (null != m) {
+                        m.setReply(err);
+                        failed.add(m);
+                    }
                 }
             }
-            final Vector<Class<? extends Object>> ifcs = new Vector<>();
-            for (String iface : ifaces) {
-                logger.debug("Trying interface {}", iface);
-                int j = 0;
-                while (j >= 0) {
+        }
+        for (final MethodCall m : failed) {
+            failCallback(m, err);
+        }
+    }
+
+    /**
+     * Set how to recover when the connection to the bus is lost.
+     *
+     * @param reconnectpolicy The policy, or null to disconnect when the connection is lost. Default is null.
+     */
+    public void setReconnectPolicy(final ReconnectPolicy reconnectpolicy) {
+        this.reconnectpolicy = reconnectpolicy;
+    }
+
+    public ReconnectPolicy getReconnectPolicy() {
+        return reconnectpolicy;
+    }
+
+    /**
+     * Returns true while the connection is being re-established after it was lost.
+     */
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    @Override
+    String getLocalSender(final String destination) {
+        if (null == destination) {
+            return null;
+        }
+        synchronized (busnames) {
+            if (busnames.isEmpty() || !busnames.contains(destination)) {
+                return null;
+            }
+            return busnames.get(0);
+        }
+    }
+
+    @Override
+    void connectionLost(final Transport failed) {
+        final ReconnectPolicy policy = reconnectpolicy;
+        if (null == policy || !_run) {
+            disconnect();
+            return;
+        }
+        synchronized (reconnectlock) {
+            if (reconnecting || !connected || failed != transport) {
+                // already being handled, or disconnecting
+                return;
+            }
+            connected = false;
+            setReconnecting(true, policy.isHoldingOutgoing());
+        }
+        logger.warn("Lost connection to {}, reconnecting with {}", addr, policy);
+        final Thread t = new Thread("DBus Reconnect") {
+            @Override
+            public void run() {
+                reconnect(failed, policy);
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void reconnect(final Transport failed, final ReconnectPolicy policy) {
+        try {
+            failPendingCalls(new Error("org.freedesktop.DBus.Local", "org.freedesktop.DBus.Local.Disconnected", 0, "s",
+                    new Object[] { localize("Disconnected") }));
+        } catch (final DBusException DBe) {
+        }
+        try {
+            failed.disconnect();
+        } catch (final IOException IOe) {
+            if (EXCEPTION_DEBUG) {
+                logger.error("Exception", IOe);
+            }
+        }
+        long delay = policy.getInitialDelay();
+        for (int attempt = 1; _run; attempt++) {
+            try {
+                Thread.sleep(delay);
+            } catch (final InterruptedException Ie) {
+            }
+            delay = Math.min(2 * delay, policy.getMaxDelay());
+            if (!_run) {
+                return;
+            }
+            Transport t = null;
+            try {
+                t = new Transport(addr, AbstractConnection.TIMEOUT);
+                if (restore(t, policy)) {
+                    logger.info("Reconnected to {} after {} attempts", addr, attempt);
+                    return;
+                }
+                t.disconnect();
+            } catch (final IOException | ParseException | DBusException e) {
+                logger.warn("Reconnecting to {} failed: {}", addr, e.getMessage());
+                if (EXCEPTION_DEBUG) {
+                    logger.error("Exception", e);
+                }
+                if (null != t) {
                     try {
-                        final Class<?> ifclass = Class.forName(iface);
-                        if (!ifcs.contains(ifclass)) {
-                            ifcs.add(ifclass);
-                        }
-                        break;
-                    } catch (final Exception e) {
+                        t.disconnect();
+                    } catch (final IOException IOe) {
                     }
-                    j = iface.lastIndexOf(".");
-                    final char[] cs = iface.toCharArray();
-                    if (j >= 0) {
-                        cs[j] = '$';
-                        iface = String.valueOf(cs);
+                }
+            }
+            if (0 != policy.getMaxAttempts() && attempt >= policy.getMaxAttempts()) {
+                logger.error("Giving up reconnecting to {} after {} attempts", addr, attempt);
+                setReconnecting(false, false);
+                disconnect();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Use a new transport: say Hello, then add the match rules and request the bus names again, all in one burst,
+     * then let queued messages through.
+     *
+     * @return true if the bus accepted the new connection.
+     */
+    private boolean restore(final Transport t, final ReconnectPolicy policy) throws DBusException {
+        final MethodCall hello = new MethodCall("org.freedesktop.DBus", "/org/freedesktop/DBus", "org.freedesktop.DBus",
+                "Hello", (byte) 0, null);
+        synchronized (reconnectlock) {
+            transport = t;
+            connected = true;
+            // let the reader at the new transport
+            reconnectlock.notifyAll();
+            sendMessage(hello, true);
+        }
+        // a bus may handle the next messages before Hello has registered us, so wait for its reply first
+        final Message reply = hello.getReply();
+        if (!(reply instanceof MethodReturn)) {
+            logger.warn("Hello failed on new connection to {}: {}", addr, reply);
+            synchronized (reconnectlock) {
+                connected = false;
+            }
+            failPendingCalls(new Error("org.freedesktop.DBus.Local", "org.freedesktop.DBus.Local.Disconnected", 0, "s",
+                    new Object[] { localize("Disconnected") }));
+            return false;
+        }
+        // the well known names we owned, which are ours again only once the bus grants them; unique names are
+        // never requested
+        final Set<String> names = new LinkedHashSet<>();
+        synchronized (busnames) {
+            for (final String name : busnames) {
+                if (!name.startsWith(":")) {
+                    names.add(name);
+                }
+            }
+            busnames.clear();
+            busnames.add((String) reply.getParameters()[0]);
+        }
+        final List<MethodCall> burst = new ArrayList<>();
+        synchronized (matchrules) {
+            for (final String rule : matchrules) {
+                burst.add(new MethodCall("org.freedesktop.DBus", "/org/freedesktop/DBus", "org.freedesktop.DBus",
+                        "AddMatch", (byte) 0, "s", rule));
+            }
+        }
+        final Map<MethodCall, String> requests = new HashMap<>();
+        for (final String name : names) {
+            final MethodCall request = new MethodCall("org.freedesktop.DBus", "/org/freedesktop/DBus",
+                    "org.freedesktop.DBus", "RequestName", (byte) 0, "su", name,
+                    new UInt32(DBus.DBUS_NAME_FLAG_REPLACE_EXISTING | DBus.DBUS_NAME_FLAG_DO_NOT_QUEUE));
+            burst.add(request);
+            requests.put(request, name);
+        }
+        synchronized (reconnectlock) {
+            for (int i = 0; i < burst.size(); i++) {
+                sendMessage(burst.get(i), i == burst.size() - 1);
+            }
+            setReconnecting(false, false);
+        }
+        // other connections may have changed their unique names too
+        nameowners.refresh();
+        synchronized (introspectioncache) {
+            introspectionchanges++;
+            introspectioncache.clear();
+        }
+        for (int i = 0; i < burst.size(); i++) {
+            final Message r = burst.get(i).getReply();
+            if (!(r instanceof MethodReturn)) {
+                logger.warn("Failed to restore {} after reconnecting: {}", burst.get(i).getName(), r);
+                continue;
+            }
+            final String name = requests.get(burst.get(i));
+            if (null == name) {
+                continue;
+            }
+            final int rv = ((UInt32) r.getParameters()[0]).intValue();
+            if (DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER == rv || DBus.DBUS_REQUEST_NAME_REPLY_ALREADY_OWNER == rv) {
+                synchronized (busnames) {
+                    if (!busnames.contains(name)) {
+                        busnames.add(name);
                     }
                 }
+            } else {
+                logger.warn("Bus name {} is owned by someone else after reconnecting", name);
             }
+        }
+        return true;
+    }
 
-            if (ifcs.size() == 0) {
-                throw new DBusException(localize("Could not find an interface to cast to"));
+    /**
+     * Start watching the owners of bus names, if not done already.
+     */
+    private void watchNameOwners() throws DBusException {
+        synchronized (ownerlock) {
+            if (null == ownerhandler) {
+                ownerhandler = new _ownerhandler();
+                addSigHandler(new DBusMatchRule(DBus.NameOwnerChanged.class, null, null), ownerhandler);
+            }
+        }
+    }
+
+    DBusInterface dynamicProxy(final String source, final String path) throws DBusException {
+        try {
+            // a well known name may move to another owner, so the cache is keyed by the owner
+            final String owner = source.startsWith(":") ? source : nameowners.getOwner(source);
+            Map<String, Class<?>[]> paths = introspectioncache.get(owner);
+            Class<?>[] ifcs = null == paths ? null : paths.get(path);
+            if (null == ifcs) {
+                ifcs = getManagedInterfaces(owner, path);
+            }
+            if (null == ifcs) {
+                logger.info("Introspecting {} on {} for dynamic proxy creation", path, owner);
+                watchNameOwners();
+                final long before;
+                synchronized (introspectioncache) {
+                    before = introspectionchanges;
+                }
+                final DBus.Introspectable intro = getRemoteObject(owner, path, DBus.Introspectable.class);
+                final String data = intro.Introspect();
+                logger.trace("Got introspection data: {}", data);
+                ifcs = getInterfaces(data);
+                // replies and signals are handled in order, so the owner going away meanwhile is visible here
+                synchronized (introspectioncache) {
+                    if (before == introspectionchanges) {
+                        paths = introspectioncache.get(owner);
+                        if (null == paths) {
+                            paths = new ConcurrentHashMap<>();
+                            introspectioncache.put(owner, paths);
+                        }
+                        paths.put(path, ifcs);
+                    }
+                }
             }
 
             final RemoteObject ro = new RemoteObject(source, path, null, false);
-            final DBusInterface newi = (DBusInterface) Proxy.newProxyInstance(ifcs.get(0).getClassLoader(),
-                    ifcs.toArray(new Class[0]), new RemoteInvocationHandler(this, ro));
-            importedObjects.put(newi, ro);
-            return newi;
+            return getProxy(ro, ifcs);
         } catch (final Exception e) {
             if (EXCEPTION_DEBUG) {
                 logger.error("Exception", e);
@@ -430,14 +941,41 @@ public class DBusConnection extends AbstractConnection {
         }
     }
 
+    /**
+     * Returns the interface classes of a remote object as known to an open object manager cache, or null if no
+     * cache knows the object.
+     */
+    private Class<?>[] getManagedInterfaces(final String owner, final String path) {
+        for (final ObjectManagerCache c : objectmanagercaches) {
+            if (!owner.equals(c.getOwner())) {
+                continue;
+            }
+            final Map<String, Map<String, Variant<?>>> ifaces = c.getInterfaces(path);
+            if (null != ifaces) {
+                try {
+                    return getInterfaces(ifaces.keySet());
+                } catch (final DBusException DBe) {
+                    // none of them has a class, introspect instead
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    void addObjectManagerCache(final ObjectManagerCache c) {
+        objectmanagercaches.add(c);
+    }
+
+    void removeObjectManagerCache(final ObjectManagerCache c) {
+        objectmanagercaches.remove(c);
+    }
+
     @Override
     DBusInterface getExportedObject(final String source, final String path) throws DBusException {
-        ExportedObject o = null;
-        synchronized (exportedObjects) {
-            o = exportedObjects.get(path);
-        }
+        ExportedObject o = objectTree.get(path);
         if (null != o && null == o.object.get()) {
-            unExportObject(path);
+            unExportCollected(path, o);
             o = null;
         }
         if (null != o) {
@@ -460,19 +998,18 @@ public class DBusConnection extends AbstractConnection {
         if (!busname.matches(BUSNAME_REGEX) || busname.length() > MAX_NAME_LENGTH) {
             throw new DBusException(localize("Invalid bus name"));
         }
-        synchronized (this.busnames) {
-            UInt32 rv;
-            try {
-                rv = _dbus.ReleaseName(busname);
-                logger.trace("release bus name '{}' returned '{}'", busname, rv);
-            } catch (final DBusExecutionException DBEe) {
-                if (EXCEPTION_DEBUG) {
-                    logger.error("Exception", DBEe);
-                }
-                throw new DBusException(DBEe.getMessage());
+        // the name list is not locked across the call, signals about the name may be handled before the reply
+        UInt32 rv;
+        try {
+            rv = _dbus.ReleaseName(busname);
+            logger.trace("release bus name '{}' returned '{}'", busname, rv);
+        } catch (final DBusExecutionException DBEe) {
+            if (EXCEPTION_DEBUG) {
+                logger.error("Exception", DBEe);
             }
-            this.busnames.remove(busname);
+            throw new DBusException(DBEe.getMessage());
         }
+        this.busnames.remove(busname);
     }
 
     /**
@@ -487,33 +1024,43 @@ public class DBusConnection extends AbstractConnection {
         if (!busname.matches(BUSNAME_REGEX) || busname.length() > MAX_NAME_LENGTH) {
             throw new DBusException(localize("Invalid bus name"));
         }
-        synchronized (this.busnames) {
-            UInt32 rv;
-            try {
-                rv = _dbus.RequestName(busname,
-                        new UInt32(DBus.DBUS_NAME_FLAG_REPLACE_EXISTING | DBus.DBUS_NAME_FLAG_DO_NOT_QUEUE));
-            } catch (final DBusExecutionException DBEe) {
-                if (EXCEPTION_DEBUG) {
-                    logger.error("Exception", DBEe);
-                }
-                throw new DBusException(DBEe.getMessage());
+        // the name list is not locked across the call, the NameAcquired signal arrives before the reply
+        UInt32 rv;
+        try {
+            rv = _dbus.RequestName(busname,
+                    new UInt32(DBus.DBUS_NAME_FLAG_REPLACE_EXISTING | DBus.DBUS_NAME_FLAG_DO_NOT_QUEUE));
+        } catch (final DBusExecutionException DBEe) {
+            if (EXCEPTION_DEBUG) {
+                logger.error("Exception", DBEe);
             }
-            switch (rv.intValue()) {
-                case DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER:
-                    break;
-                case DBus.DBUS_REQUEST_NAME_REPLY_IN_QUEUE:
-                    throw new DBusException(localize("Failed to register bus name"));
-                case DBus.DBUS_REQUEST_NAME_REPLY_EXISTS:
-                    throw new DBusException(localize("Failed to register bus name"));
-                case DBus.DBUS_REQUEST_NAME_REPLY_ALREADY_OWNER:
-                    break;
-                default:
-                    break;
+            throw new DBusException(DBEe.getMessage());
+        }
+        switch (rv.intValue()) {
+            case DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER:
+                break;
+            case DBus.DBUS_REQUEST_NAME_REPLY_IN_QUEUE:
+                throw new DBusException(localize("Failed to register bus name"));
+            case DBus.DBUS_REQUEST_NAME_REPLY_EXISTS:
+                throw new DBusException(localize("Failed to register bus name"));
+            case DBus.DBUS_REQUEST_NAME_REPLY_ALREADY_OWNER:
+                break;
+            default:
+                break;
+        }
+        synchronized (this.busnames) {
+            if (!this.busnames.contains(busname)) {
+                this.busnames.add(busname);
             }
-            this.busnames.add(busname);
         }
     }
 
+    /**
+     * Returns the cache of bus name owners used by getPeerRemoteObject.
+     */
+    public NameOwnerCache getNameOwnerCache() {
+        return nameowners;
+    }
+
     /**
      * Returns the unique name of this connection.
      */
@@ -565,7 +1112,7 @@ public class DBusConnection extends AbstractConnection {
             throw new DBusException(localize("Invalid bus name: ") + busname);
         }
 
-        final String unique = _dbus.GetNameOwner(busname);
+        final String unique = nameowners.getOwner(busname);
 
         return dynamicProxy(unique, objectpath);
     }
@@ -643,7 +1190,7 @@ public class DBusConnection extends AbstractConnection {
             throw new DBusException(localize("Invalid bus name: ") + busname);
         }
 
-        final String unique = _dbus.GetNameOwner(busname);
+        final String unique = nameowners.getOwner(busname);
 
         return getRemoteObject(unique, objectpath, type, autostart);
     }
@@ -726,10 +1273,7 @@ public class DBusConnection extends AbstractConnection {
         }
 
         final RemoteObject ro = new RemoteObject(busname, objectpath, type, autostart);
-        final I i = (I) Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type },
-                new RemoteInvocationHandler(this, ro));
-        importedObjects.put(i, ro);
-        return i;
+        return (I) getProxy(ro, type);
     }
 
     /**
@@ -797,6 +1341,7 @@ public class DBusConnection extends AbstractConnection {
                 v.remove(handler);
                 if (0 == v.size()) {
                     handledSignals.remove(key);
+                    matchrules.remove(rule.toString());
                     try {
                         _dbus.RemoveMatch(rule.toString());
                     } catch (final NotConnected NC) {
@@ -883,6 +1428,7 @@ public class DBusConnection extends AbstractConnection {
             }
             throw new DBusException(DBEe.getMessage());
         }
+        matchrules.add(rule.toString());
         final SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(),
                 rule.getSource());
         synchronized (handledSignals) {
@@ -906,35 +1452,34 @@ public class DBusConnection extends AbstractConnection {
     public void disconnect() {
         synchronized (conn) {
             synchronized (_reflock) {
-                if (0 == --_refcount) {
-                    logger.info("Disconnecting DBusConnection");
-                    // Set all pending messages to have an error.
-                    try {
-                        final Error err = new Error("org.freedesktop.DBus.Local",
-                                "org.freedesktop.DBus.Local.Disconnected", 0, "s",
-                                new Object[] { localize("Disconnected") });
-                        synchronized (pendingCalls) {
-                            final long[] set = pendingCalls.getKeys();
-                            for (final long l : set) {
-                                if (-1 != l) {
-                                    final MethodCall m = pendingCalls.remove(l);
-                                    if (null != m) {
-                                        m.setReply(err);
-                                    }
-                                }
-                            }
-                            pendingCalls = null;
-                        }
-                        synchronized (pendingErrors) {
-                            pendingErrors.add(err);
-                        }
-                    } catch (final DBusException DBe) {
-                    }
-
-                    conn.remove(addr);
-                    super.disconnect();
+                if (0 != --_refcount) {
+                    return;
+                }
+            }
+            if (conn.get(addr) == this) {
+                conn.remove(addr);
+            }
+        }
+        // tear down without the global lock, so connections to other busses are not held up
+        logger.info("Disconnecting DBusConnection");
+        // Set all pending messages to have an error.
+        try {
+            final Error err = new Error("org.freedesktop.DBus.Local",
+                    "org.freedesktop.DBus.Local.Disconnected", 0, "s",
+                    new Object[] { localize("Disconnected") });
+            final EfficientMap calls = pendingCalls;
+            if (null != calls) {
+                synchronized (calls) {
+                    pendingCalls = null;
                 }
+                // fail them with their callbacks, after no more calls can be added
+                failPendingCalls(calls, err);
+            }
+            synchronized (pendingErrors) {
+                pendingErrors.add(err);
             }
+        } catch (final DBusException DBe) {
         }
+        super.disconnect();
     }
 }
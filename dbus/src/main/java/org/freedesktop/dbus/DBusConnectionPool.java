@@ -0,0 +1,307 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext.localize;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed number of connections to the same bus, to spread outgoing calls over several sockets and threads.
+ * <p>
+ * Exported objects, bus names and signal handlers all live on the first connection. Only method calls made on
+ * proxies from {@link #getRemoteObject(String, String, Class)} are spread over the connections, as chosen by the
+ * {@link Strategy}. Each connection has its own unique name, so peers see these calls coming from different
+ * senders, none of which owns the bus names of the pool. Calls sent on different connections may overtake each
+ * other; use {@link Strategy#STICKY} to keep calls to the same destination in order.
+ * </p>
+ * <p>
+ * Calls passing an object as an argument always go out on the first connection, where the exported objects are
+ * known, so that the peer can call back on them.
+ * </p>
+ * <p>
+ * The pooled proxies cannot be passed to {@link AbstractConnection#callMethodAsync} and friends, use the proxy
+ * from {@link #getConnection(String)} for those.
+ * </p>
+ */
+public class DBusConnectionPool {
+    private final Logger logger = LoggerFactory.getLogger(DBusConnectionPool.class);
+
+    /** How to pick the connection for a call */
+    public enum Strategy {
+        /** Each call goes to the next connection in turn */
+        ROUND_ROBIN,
+        /** Each call goes to the connection with the fewest calls waiting for a reply */
+        LEAST_PENDING,
+        /** All calls to a bus name go to the same connection, keeping them in order */
+        STICKY
+    }
+
+    private final DBusConnection[] connections;
+    private final Strategy strategy;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Open a pool of connections to the given bus.
+     *
+     * @param address The address of the bus to connect to
+     * @param size The number of connections to open.
+     * @param strategy How to spread calls over the connections.
+     * @throws DBusException If there is a problem connecting to the Bus.
+     */
+    public DBusConnectionPool(final String address, final int size, final Strategy strategy) throws DBusException {
+        if (size < 1) {
+            throw new DBusException(localize("Invalid pool size: ") + size);
+        }
+        this.strategy = strategy;
+        connections = new DBusConnection[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                connections[i] = DBusConnection.newConnection(address);
+            }
+        } catch (final DBusException DBe) {
+            disconnect();
+            throw DBe;
+        }
+        logger.debug("Opened {} connections to {}", size, address);
+    }
+
+    /**
+     * Open a pool of connections to the given bus.
+     *
+     * @param bustype The Bus to connect to.
+     * @param size The number of connections to open.
+     * @param strategy How to spread calls over the connections.
+     * @see DBusConnection#SYSTEM
+     * @see DBusConnection#SESSION
+     * @throws DBusException If there is a problem connecting to the Bus.
+     */
+    public DBusConnectionPool(final int bustype, final int size, final Strategy strategy) throws DBusException {
+        this(DBusConnection.getBusAddress(bustype), size, strategy);
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public int size() {
+        return connections.length;
+    }
+
+    /**
+     * Returns the connection objects, bus names and signal handlers live on.
+     */
+    public DBusConnection getConnection() {
+        return connections[0];
+    }
+
+    /**
+     * Returns the connection the next call to the given bus name would go to.
+     */
+    public DBusConnection getConnection(final String busname) {
+        return connections[select(busname)];
+    }
+
+    private int select(final String busname) {
+        final int n = connections.length;
+        switch (strategy) {
+            case STICKY:
+                return (busname.hashCode() & Integer.MAX_VALUE) % n;
+            case LEAST_PENDING:
+                // start at a different connection each time, so ties are spread as well
+                final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+                int best = start;
+                int fewest = Integer.MAX_VALUE;
+                for (int i = 0; i < n; i++) {
+                    final int j = (start + i) % n;
+                    final int pending = connections[j].getPendingCallCount();
+                    if (pending < fewest) {
+                        best = j;
+                        fewest = pending;
+                        if (0 == pending) {
+                            break;
+                        }
+                    }
+                }
+                return best;
+            case ROUND_ROBIN:
+            default:
+                return (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+        }
+    }
+
+    /**
+     * Return a reference to a remote object whose method calls are spread over the connections of the pool.
+     *
+     * @param busname The bus name to connect to. Usually a well known bus name name in dot-notation (such as
+     *            "org.freedesktop.local")
+     *            or may be a DBus address such as ":1-16".
+     * @param objectpath The path on which the process is exporting the object.
+     * @param type The interface they are exporting it on.
+     * @return A reference to a remote object.
+     * @throws DBusException If busname or objectpath are incorrectly formatted or type is not in a package.
+     */
+    @SuppressWarnings("unchecked")
+    public <I extends DBusInterface> I getRemoteObject(final String busname, final String objectpath,
+            final Class<I> type) throws DBusException {
+        final DBusInterface[] proxies = new DBusInterface[connections.length];
+        for (int i = 0; i < connections.length; i++) {
+            proxies[i] = connections[i].getRemoteObject(busname, objectpath, type);
+        }
+        return (I) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                new PooledInvocationHandler(busname, proxies));
+    }
+
+    /** Sends each call through the proxy on the connection picked for it */
+    private class PooledInvocationHandler implements InvocationHandler {
+        private final String busname;
+        private final DBusInterface[] proxies;
+
+        public PooledInvocationHandler(final String busname, final DBusInterface[] proxies) {
+            this.busname = busname;
+            this.proxies = proxies;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (Object.class.equals(method.getDeclaringClass())) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return "Pooled " + proxies[0];
+                }
+            }
+            int i = -1;
+            Object[] a = args;
+            if (null != args) {
+                for (int j = 0; j < args.length; j++) {
+                    if (args[j] instanceof DBusInterface) {
+                        // exported objects are only known to the first connection
+                        i = 0;
+                        if (args[j] instanceof Proxy
+                                && Proxy.getInvocationHandler(args[j]) instanceof PooledInvocationHandler) {
+                            if (a == args) {
+                                a = args.clone();
+                            }
+                            a[j] = ((PooledInvocationHandler) Proxy.getInvocationHandler(args[j])).proxies[0];
+                        }
+                    }
+                }
+            }
+            if (-1 == i) {
+                i = select(busname);
+            }
+            try {
+                return method.invoke(proxies[i], a);
+            } catch (final InvocationTargetException ITe) {
+                throw ITe.getCause();
+            }
+        }
+    }
+
+    /**
+     * Export an object on the first connection.
+     *
+     * @see AbstractConnection#exportObject(String, DBusInterface)
+     */
+    public void exportObject(final String objectpath, final DBusInterface object) throws DBusException {
+        connections[0].exportObject(objectpath, object);
+    }
+
+    /**
+     * @see AbstractConnection#unExportObject(String)
+     */
+    public void unExportObject(final String objectpath) {
+        connections[0].unExportObject(objectpath);
+    }
+
+    /**
+     * Request a bus name for the first connection.
+     *
+     * @see DBusConnection#requestBusName(String)
+     */
+    public void requestBusName(final String busname) throws DBusException {
+        connections[0].requestBusName(busname);
+    }
+
+    /**
+     * @see DBusConnection#releaseBusName(String)
+     */
+    public void releaseBusName(final String busname) throws DBusException {
+        connections[0].releaseBusName(busname);
+    }
+
+    /**
+     * Returns the unique name of the first connection, which owns the bus names of the pool.
+     */
+    public String getUniqueName() {
+        return connections[0].getUniqueName();
+    }
+
+    /**
+     * Send a signal from the first connection, keeping signals in order.
+     */
+    public void sendSignal(final DBusSignal signal) {
+        connections[0].sendSignal(signal);
+    }
+
+    /**
+     * Add a signal handler on the first connection.
+     *
+     * @see AbstractConnection#addSigHandler(Class, DBusSigHandler)
+     */
+    public <T extends DBusSignal> void addSigHandler(final Class<T> type, final DBusSigHandler<T> handler)
+            throws DBusException {
+        connections[0].addSigHandler(type, handler);
+    }
+
+    /**
+     * @see AbstractConnection#removeSigHandler(Class, DBusSigHandler)
+     */
+    public <T extends DBusSignal> void removeSigHandler(final Class<T> type, final DBusSigHandler<T> handler)
+            throws DBusException {
+        connections[0].removeSigHandler(type, handler);
+    }
+
+    /**
+     * Set how each of the connections recovers when it is lost.
+     *
+     * @see DBusConnection#setReconnectPolicy(ReconnectPolicy)
+     */
+    public void setReconnectPolicy(final ReconnectPolicy reconnectpolicy) {
+        for (final DBusConnection c : connections) {
+            c.setReconnectPolicy(reconnectpolicy);
+        }
+    }
+
+    /**
+     * Disconnect all connections of the pool.
+     */
+    public void disconnect() {
+        for (final DBusConnection c : connections) {
+            if (null != c) {
+                c.disconnect();
+            }
+        }
+    }
+}
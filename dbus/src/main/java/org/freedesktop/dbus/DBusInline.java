@@ -0,0 +1,32 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an exported method or a signal handler as non-blocking.
+ * Such methods and handlers are run directly on the thread reading from the bus instead of being queued
+ * on a worker pool. They must return quickly and must not make synchronous calls, or all incoming
+ * messages are held up.
+ * <p>
+ * On an exported method annotate either the method of the interface or the method of the exported class.
+ * On a signal handler either annotate its class or its handle method.
+ * </p>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface DBusInline {
+}
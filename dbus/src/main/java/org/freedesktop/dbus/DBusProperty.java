@@ -0,0 +1,43 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a property of a DBusInterface.
+ * <p>
+ * An exported object implementing the interface provides the property with public methods following the bean
+ * conventions: getName() or isName() to read it and setName(value) to write it. The type of the property is the
+ * type of these methods. The connection implements org.freedesktop.DBus.Properties for the object, unless the
+ * object implements it itself. Changes are announced with {@link PropertiesEmitter}.
+ * </p>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Repeatable(DBusProperties.class)
+public @interface DBusProperty {
+    /** Access to a property */
+    public enum Access {
+        READ, WRITE, READ_WRITE
+    }
+
+    /** The name of the property. */
+    String name();
+
+    /** Whether the property can be read, written or both. */
+    Access access() default Access.READ_WRITE;
+}
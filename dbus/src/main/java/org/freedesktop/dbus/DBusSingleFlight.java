@@ -0,0 +1,39 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a remote method, or all methods of a remote interface, as idempotent so that identical concurrent calls
+ * can share one request.
+ * <p>
+ * While a call is waiting for its reply, callers making the same call on the same remote object with equal
+ * arguments wait for that reply instead of sending their own. All of them get the same return value object, so it
+ * should not be modified. With a ttl the reply is also kept for that long and answers further identical calls; use
+ * {@link AbstractConnection#invalidateCachedReplies(DBusInterface)} to drop it earlier.
+ * </p>
+ * <p>
+ * Only synchronous calls are coalesced.
+ * </p>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface DBusSingleFlight {
+    /**
+     * How long a successful reply is kept for identical calls, in milliseconds. 0 only shares calls in flight.
+     */
+    long ttl() default 0;
+}
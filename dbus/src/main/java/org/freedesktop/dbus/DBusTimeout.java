@@ -0,0 +1,31 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sets how long to wait for the reply to calls of a remote method, or of all methods of a remote interface,
+ * instead of the default set with {@link MethodCall#setDefaultTimeout(long)}. A timeout set on the proxy with
+ * {@link AbstractConnection#withTimeout(DBusInterface, long)} takes precedence.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface DBusTimeout {
+    /**
+     * The timeout in milliseconds, or 0 to wait for the reply without a timeout.
+     */
+    long value();
+}
@@ -15,7 +15,6 @@ import static org.freedesktop.dbus.Gettext.localize;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Proxy;
 import java.net.ServerSocket;
 import java.text.MessageFormat;
 import java.text.ParseException;
@@ -115,40 +114,10 @@ public class DirectConnection extends AbstractConnection {
         try {
             final DBus.Introspectable intro = (DBus.Introspectable) getRemoteObject(path, DBus.Introspectable.class);
             final String data = intro.Introspect();
-            final String[] tags = data.split("[<>]");
-            final Vector<String> ifaces = new Vector<>();
-            for (final String tag : tags) {
-                if (tag.startsWith("interface")) {
-                    ifaces.add(tag.replaceAll("^interface *name *= *['\"]([^'\"]*)['\"].*$", "$1"));
-                }
-            }
-            final Vector<Class<? extends Object>> ifcs = new Vector<>();
-            for (String iface : ifaces) {
-                int j = 0;
-                while (j >= 0) {
-                    try {
-                        ifcs.add(Class.forName(iface));
-                        break;
-                    } catch (final Exception e) {
-                    }
-                    j = iface.lastIndexOf(".");
-                    final char[] cs = iface.toCharArray();
-                    if (j >= 0) {
-                        cs[j] = '$';
-                        iface = String.valueOf(cs);
-                    }
-                }
-            }
-
-            if (ifcs.size() == 0) {
-                throw new DBusException(localize("Could not find an interface to cast to"));
-            }
+            final Class<?>[] ifcs = getInterfaces(data);
 
             final RemoteObject ro = new RemoteObject(null, path, null, false);
-            final DBusInterface newi = (DBusInterface) Proxy.newProxyInstance(ifcs.get(0).getClassLoader(),
-                    ifcs.toArray(new Class[0]), new RemoteInvocationHandler(this, ro));
-            importedObjects.put(newi, ro);
-            return newi;
+            return getProxy(ro, ifcs);
         } catch (final Exception e) {
             if (EXCEPTION_DEBUG) {
                 logger.error("Exception", e);
@@ -160,12 +129,9 @@ public class DirectConnection extends AbstractConnection {
     }
 
     DBusInterface getExportedObject(final String path) throws DBusException {
-        ExportedObject o = null;
-        synchronized (exportedObjects) {
-            o = exportedObjects.get(path);
-        }
+        ExportedObject o = objectTree.get(path);
         if (null != o && null == o.object.get()) {
-            unExportObject(path);
+            unExportCollected(path, o);
             o = null;
         }
         if (null != o) {
@@ -244,10 +210,7 @@ public class DirectConnection extends AbstractConnection {
         }
 
         final RemoteObject ro = new RemoteObject(null, objectpath, type, false);
-        final DBusInterface i = (DBusInterface) Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type },
-                new RemoteInvocationHandler(this, ro));
-        importedObjects.put(i, ro);
-        return i;
+        return getProxy(ro, type);
     }
 
     @Override
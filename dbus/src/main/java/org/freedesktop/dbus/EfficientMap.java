@@ -20,6 +20,7 @@ class EfficientMap {
     private MethodCall[] vv;
     private int start;
     private int end;
+    private int count;
     private final int init_size;
 
     public EfficientMap(final int initial_size) {
@@ -81,6 +82,7 @@ class EfficientMap {
     }
 
     public void put(final long l, final MethodCall m) {
+        count++;
         // put this at the end
         kv[end] = l;
         vv[end] = m;
@@ -105,6 +107,7 @@ class EfficientMap {
         }
         // get the value
         final MethodCall m = vv[pos];
+        count--;
         // set it as unused
         vv[pos] = null;
         kv[pos] = -1;
@@ -124,6 +127,13 @@ class EfficientMap {
         return m;
     }
 
+    /**
+     * Returns the number of entries.
+     */
+    public int size() {
+        return count;
+    }
+
     public boolean contains(final long l) {
         // check if find succeeds
         return -1 != find(l);
@@ -23,17 +23,147 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
+import org.freedesktop.DBus;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.DBusExecutionException;
 
 class ExportedObject {
-    private String getAnnotations(final AnnotatedElement c) {
-        String ans = "";
+    /** A property declared with {@link DBusProperty} and the methods of the exported class accessing it */
+    static class Property {
+        final String name;
+        final Method getter;
+        final Method setter;
+        final Type type;
+        final String sig;
+
+        public Property(final DBusProperty p, final Class<?> impl) throws DBusException {
+            name = p.name();
+            Method get = null;
+            Method set = null;
+            for (final Method meth : impl.getMethods()) {
+                if (0 == meth.getParameterTypes().length && !Void.TYPE.equals(meth.getReturnType())
+                        && (("get" + name).equals(meth.getName()) || ("is" + name).equals(meth.getName()))) {
+                    get = meth;
+                } else if (1 == meth.getParameterTypes().length && ("set" + name).equals(meth.getName())) {
+                    set = meth;
+                }
+            }
+            getter = DBusProperty.Access.WRITE == p.access() ? null : get;
+            setter = DBusProperty.Access.READ == p.access() ? null : set;
+            if (DBusProperty.Access.WRITE != p.access() && null == getter
+                    || DBusProperty.Access.READ != p.access() && null == setter) {
+                throw new DBusException(MessageFormat.format(localize("Missing accessor for property {0} on {1}"),
+                        new Object[] { name, impl.getName() }));
+            }
+            // the exported class need not be public, so its public accessors cannot always be invoked by reflection
+            if (null != getter) {
+                getter.setAccessible(true);
+            }
+            if (null != setter) {
+                setter.setAccessible(true);
+            }
+            type = null != getter ? getter.getGenericReturnType() : setter.getGenericParameterTypes()[0];
+            final StringBuilder sb = new StringBuilder();
+            for (final String s : Marshalling.getDBusType(type)) {
+                sb.append(s);
+            }
+            sig = sb.toString();
+        }
+
+        String getAccess() {
+            if (null == setter) {
+                return "read";
+            } else if (null == getter) {
+                return "write";
+            } else {
+                return "readwrite";
+            }
+        }
+    }
+
+    /** Methods and introspection data of an exported class, computed once per class */
+    private static class ClassInfo {
+        final Map<MethodTuple, Method> methods;
+        final Map<String, Map<String, Property>> properties;
+        final List<String> interfaces;
+        final String introspectiondata;
+        final DBusException error;
+
+        public ClassInfo(final Map<MethodTuple, Method> methods, final Map<String, Map<String, Property>> properties,
+                final List<String> interfaces, final String introspectiondata, final DBusException error) {
+            this.methods = methods;
+            this.properties = properties;
+            this.interfaces = interfaces;
+            this.introspectiondata = introspectiondata;
+            this.error = error;
+        }
+    }
+
+    private static final ClassValue<ClassInfo> classinfo = new ClassValue<ClassInfo>() {
+        @Override
+        protected ClassInfo computeValue(final Class<?> c) {
+            try {
+                final StringBuilder sb = new StringBuilder();
+                final Map<String, Map<String, Property>> properties = new HashMap<>();
+                final List<String> interfaces = new ArrayList<>();
+                final Map<MethodTuple, Method> methods = getExportedMethods(c, c, sb, properties, interfaces);
+                if (!properties.isEmpty() && !DBus.Properties.class.isAssignableFrom(c)) {
+                    // answer org.freedesktop.DBus.Properties on behalf of the object
+                    interfaces.add("org.freedesktop.DBus.Properties");
+                    for (final Method meth : ExportedProperties.class.getDeclaredMethods()) {
+                        if (Modifier.isPublic(meth.getModifiers()) && !"isRemote".equals(meth.getName())) {
+                            methods.put(
+                                    new MethodTuple(meth.getName(),
+                                            Marshalling.getDBusType(meth.getGenericParameterTypes())),
+                                    meth);
+                        }
+                    }
+                    sb.append(" <interface name=\"org.freedesktop.DBus.Properties\">\n")
+                            .append("  <method name=\"Get\">\n")
+                            .append("   <arg type=\"s\" direction=\"in\"/>\n")
+                            .append("   <arg type=\"s\" direction=\"in\"/>\n")
+                            .append("   <arg type=\"v\" direction=\"out\"/>\n").append("  </method>\n")
+                            .append("  <method name=\"Set\">\n").append("   <arg type=\"s\" direction=\"in\"/>\n")
+                            .append("   <arg type=\"s\" direction=\"in\"/>\n")
+                            .append("   <arg type=\"v\" direction=\"in\"/>\n").append("  </method>\n")
+                            .append("  <method name=\"GetAll\">\n").append("   <arg type=\"s\" direction=\"in\"/>\n")
+                            .append("   <arg type=\"a{sv}\" direction=\"out\"/>\n").append("  </method>\n")
+                            .append("  <signal name=\"PropertiesChanged\">\n")
+                            .append("   <arg type=\"s\" direction=\"out\" />\n")
+                            .append("   <arg type=\"a{sv}\" direction=\"out\" />\n")
+                            .append("   <arg type=\"as\" direction=\"out\" />\n").append("  </signal>\n")
+                            .append(" </interface>\n");
+                }
+                sb.append(" <interface name=\"org.freedesktop.DBus.Introspectable\">\n")
+                        .append("  <method name=\"Introspect\">\n").append("   <arg type=\"s\" direction=\"out\"/>\n")
+                        .append("  </method>\n").append(" </interface>\n");
+                sb.append(" <interface name=\"org.freedesktop.DBus.Peer\">\n").append("  <method name=\"Ping\">\n")
+                        .append("  </method>\n").append(" </interface>\n");
+                return new ClassInfo(Collections.unmodifiableMap(methods), Collections.unmodifiableMap(properties),
+                        Collections.unmodifiableList(interfaces), sb.toString(), null);
+            } catch (final DBusException DBe) {
+                return new ClassInfo(null, null, null, null, DBe);
+            }
+        }
+    };
+
+    private static String getAnnotations(final AnnotatedElement c) {
+        final StringBuilder ans = new StringBuilder();
         for (final Annotation a : c.getDeclaredAnnotations()) {
             final Class<? extends Annotation> t = a.annotationType();
+            if (DBusInline.class.equals(t) || DBusSingleFlight.class.equals(t) || DBusTimeout.class.equals(t)
+                    || DBusProperty.class.equals(t) || DBusProperties.class.equals(t)) {
+                // only of interest to this process
+                continue;
+            }
             String value = "";
             try {
                 final Method m = t.getMethod("value");
@@ -43,13 +173,16 @@ class ExportedObject {
             } catch (final IllegalAccessException IAe) {
             }
 
-            ans += "  <annotation name=\"" + AbstractConnection.dollar_pattern.matcher(t.getName()).replaceAll(".")
-                    + "\" value=\"" + value + "\" />\n";
+            ans.append("  <annotation name=\"")
+                    .append(AbstractConnection.dollar_pattern.matcher(t.getName()).replaceAll("."))
+                    .append("\" value=\"").append(value).append("\" />\n");
         }
-        return ans;
+        return ans.toString();
     }
 
-    private Map<MethodTuple, Method> getExportedMethods(final Class<?> c) throws DBusException {
+    private static Map<MethodTuple, Method> getExportedMethods(final Class<?> c, final Class<?> impl,
+            final StringBuilder xml, final Map<String, Map<String, Property>> properties, final List<String> interfaces)
+            throws DBusException {
         if (DBusInterface.class.equals(c)) {
             return new HashMap<>();
         }
@@ -57,10 +190,11 @@ class ExportedObject {
         for (final Class<?> i : c.getInterfaces()) {
             if (DBusInterface.class.equals(i)) {
                 // add this class's public methods
+                final String ifacename;
                 if (null != c.getAnnotation(DBusInterfaceName.class)) {
-                    final String name = c.getAnnotation(DBusInterfaceName.class).value();
-                    introspectiondata += " <interface name=\"" + name + "\">\n";
-                    DBusSignal.addInterfaceMap(c.getName(), name);
+                    ifacename = c.getAnnotation(DBusInterfaceName.class).value();
+                    xml.append(" <interface name=\"" + ifacename + "\">\n");
+                    DBusSignal.addInterfaceMap(c.getName(), ifacename);
                 } else {
                     // don't let people export things which don't have a
                     // valid D-Bus interface name
@@ -72,11 +206,23 @@ class ExportedObject {
                                 "Introspected interface name exceeds 255 characters. Cannot export objects of type ")
                                 + c.getName());
                     } else {
-                        introspectiondata += " <interface name=\""
-                                + AbstractConnection.dollar_pattern.matcher(c.getName()).replaceAll(".") + "\">\n";
+                        ifacename = AbstractConnection.dollar_pattern.matcher(c.getName()).replaceAll(".");
+                        xml.append(" <interface name=\"" + ifacename + "\">\n");
+                    }
+                }
+                interfaces.add(ifacename);
+                xml.append(getAnnotations(c));
+                final DBusProperty[] props = c.getAnnotationsByType(DBusProperty.class);
+                if (props.length > 0) {
+                    final Map<String, Property> ps = new TreeMap<>();
+                    for (final DBusProperty p : props) {
+                        final Property prop = new Property(p, impl);
+                        ps.put(prop.name, prop);
+                        xml.append("  <property name=\"" + prop.name + "\" type=\"" + prop.sig + "\" access=\""
+                                + prop.getAccess() + "\" />\n");
                     }
+                    properties.put(ifacename, Collections.unmodifiableMap(ps));
                 }
-                introspectiondata += getAnnotations(c);
                 for (final Method meth : c.getDeclaredMethods()) {
                     if (Modifier.isPublic(meth.getModifiers())) {
                         String ms = "";
@@ -91,43 +237,44 @@ class ExportedObject {
                                     "Introspected method name exceeds 255 characters. Cannot export objects with method ")
                                     + name);
                         }
-                        introspectiondata += "  <method name=\"" + name + "\" >\n";
-                        introspectiondata += getAnnotations(meth);
+                        xml.append("  <method name=\"" + name + "\" >\n");
+                        xml.append(getAnnotations(meth));
                         for (final Class<?> ex : meth.getExceptionTypes()) {
                             if (DBusExecutionException.class.isAssignableFrom(ex)) {
-                                introspectiondata += "   <annotation name=\"org.freedesktop.DBus.Method.Error\" value=\""
+                                xml.append("   <annotation name=\"org.freedesktop.DBus.Method.Error\" value=\""
                                         + AbstractConnection.dollar_pattern.matcher(ex.getName()).replaceAll(".")
-                                        + "\" />\n";
+                                        + "\" />\n");
                             }
                         }
                         for (final Type pt : meth.getGenericParameterTypes()) {
                             for (final String s : Marshalling.getDBusType(pt)) {
-                                introspectiondata += "   <arg type=\"" + s + "\" direction=\"in\"/>\n";
+                                xml.append("   <arg type=\"" + s + "\" direction=\"in\"/>\n");
                                 ms += s;
                             }
                         }
-                        if (!Void.TYPE.equals(meth.getGenericReturnType())) {
-                            if (Tuple.class.isAssignableFrom(meth.getReturnType())) {
-                                final ParameterizedType tc = (ParameterizedType) meth.getGenericReturnType();
+                        final Type rt = Marshalling.getReplyType(meth);
+                        if (!Void.TYPE.equals(rt)) {
+                            if (Tuple.class.isAssignableFrom(Marshalling.getReplyClass(meth))) {
+                                final ParameterizedType tc = (ParameterizedType) rt;
                                 final Type[] ts = tc.getActualTypeArguments();
 
                                 for (final Type t : ts) {
                                     if (t != null) {
                                         for (final String s : Marshalling.getDBusType(t)) {
-                                            introspectiondata += "   <arg type=\"" + s + "\" direction=\"out\"/>\n";
+                                            xml.append("   <arg type=\"" + s + "\" direction=\"out\"/>\n");
                                         }
                                     }
                                 }
-                            } else if (Object[].class.equals(meth.getGenericReturnType())) {
+                            } else if (Object[].class.equals(rt)) {
                                 throw new DBusException(
                                         localize("Return type of Object[] cannot be introspected properly"));
                             } else {
-                                for (final String s : Marshalling.getDBusType(meth.getGenericReturnType())) {
-                                    introspectiondata += "   <arg type=\"" + s + "\" direction=\"out\"/>\n";
+                                for (final String s : Marshalling.getDBusType(rt)) {
+                                    xml.append("   <arg type=\"" + s + "\" direction=\"out\"/>\n");
                                 }
                             }
                         }
-                        introspectiondata += "  </method>\n";
+                        xml.append("  </method>\n");
                         m.put(new MethodTuple(name, ms), meth);
                     }
                 }
@@ -145,29 +292,46 @@ class ExportedObject {
                                     "Introspected signal name exceeds 255 characters. Cannot export objects with signals of type ")
                                     + name);
                         }
-                        introspectiondata += "  <signal name=\"" + name + "\">\n";
+                        xml.append("  <signal name=\"" + name + "\">\n");
                         final Constructor<?> con = sig.getConstructors()[0];
                         final Type[] ts = con.getGenericParameterTypes();
                         for (int j = 1; j < ts.length; j++) {
                             for (final String s : Marshalling.getDBusType(ts[j])) {
-                                introspectiondata += "   <arg type=\"" + s + "\" direction=\"out\" />\n";
+                                xml.append("   <arg type=\"" + s + "\" direction=\"out\" />\n");
                             }
                         }
-                        introspectiondata += getAnnotations(sig);
-                        introspectiondata += "  </signal>\n";
+                        xml.append(getAnnotations(sig));
+                        xml.append("  </signal>\n");
 
                     }
                 }
-                introspectiondata += " </interface>\n";
+                xml.append(" </interface>\n");
             } else {
                 // recurse
-                m.putAll(getExportedMethods(i));
+                m.putAll(getExportedMethods(i, impl, xml, properties, interfaces));
             }
         }
         return m;
     }
 
+    /**
+     * Returns the properties of an exported class.
+     *
+     * @param c The class of an exported object.
+     * @return The properties by interface name and property name.
+     * @throws DBusException If objects of the class cannot be exported.
+     */
+    static Map<String, Map<String, Property>> getProperties(final Class<?> c) throws DBusException {
+        final ClassInfo info = classinfo.get(c);
+        if (null != info.error) {
+            throw info.error;
+        }
+        return info.properties;
+    }
+
     Map<MethodTuple, Method> methods;
+    Map<String, Map<String, Property>> properties;
+    List<String> interfaces;
     Reference<DBusInterface> object;
     String introspectiondata;
 
@@ -177,12 +341,13 @@ class ExportedObject {
         } else {
             this.object = new StrongReference<>(object);
         }
-        introspectiondata = "";
-        methods = getExportedMethods(object.getClass());
-        introspectiondata += " <interface name=\"org.freedesktop.DBus.Introspectable\">\n"
-                + "  <method name=\"Introspect\">\n" + "   <arg type=\"s\" direction=\"out\"/>\n" + "  </method>\n"
-                + " </interface>\n";
-        introspectiondata += " <interface name=\"org.freedesktop.DBus.Peer\">\n" + "  <method name=\"Ping\">\n"
-                + "  </method>\n" + " </interface>\n";
+        final ClassInfo info = classinfo.get(object.getClass());
+        if (null != info.error) {
+            throw info.error;
+        }
+        methods = info.methods;
+        properties = info.properties;
+        interfaces = info.interfaces;
+        introspectiondata = info.introspectiondata;
     }
 }
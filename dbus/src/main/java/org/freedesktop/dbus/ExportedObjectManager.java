@@ -0,0 +1,76 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.freedesktop.DBus;
+
+/**
+ * Answers org.freedesktop.DBus.ObjectManager for a path registered with
+ * {@link AbstractConnection#exportObjectManager(String)}, from the objects exported below it.
+ */
+class ExportedObjectManager implements DBus.ObjectManager {
+    /** Introspection data of the interface, added to the node of the object manager */
+    static final String INTROSPECTION_DATA = " <interface name=\"org.freedesktop.DBus.ObjectManager\">\n"
+            + "  <method name=\"GetManagedObjects\">\n"
+            + "   <arg type=\"a{oa{sa{sv}}}\" direction=\"out\"/>\n"
+            + "  </method>\n"
+            + "  <signal name=\"InterfacesAdded\">\n"
+            + "   <arg type=\"o\" direction=\"out\" />\n"
+            + "   <arg type=\"a{sa{sv}}\" direction=\"out\" />\n"
+            + "  </signal>\n"
+            + "  <signal name=\"InterfacesRemoved\">\n"
+            + "   <arg type=\"o\" direction=\"out\" />\n"
+            + "   <arg type=\"as\" direction=\"out\" />\n"
+            + "  </signal>\n"
+            + " </interface>\n";
+
+    private final AbstractConnection conn;
+    private final String objectpath;
+
+    public ExportedObjectManager(final AbstractConnection conn, final String objectpath) {
+        this.conn = conn;
+        this.objectpath = objectpath;
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    /**
+     * Returns the interfaces of an exported object, with the current values of their properties.
+     */
+    static Map<String, Map<String, Variant<?>>> getInterfacesAndProperties(final AbstractConnection conn,
+            final ExportedObject eo, final DBusInterface object) {
+        final Map<String, Map<String, Variant<?>>> interfaces = new HashMap<>();
+        final ExportedProperties properties = new ExportedProperties(conn, eo, object);
+        for (final String iface : eo.interfaces) {
+            interfaces.put(iface, properties.GetAll(iface));
+        }
+        return interfaces;
+    }
+
+    @Override
+    public Map<Path, Map<String, Map<String, Variant<?>>>> GetManagedObjects() {
+        final Map<Path, Map<String, Map<String, Variant<?>>>> objects = new HashMap<>();
+        for (final Map.Entry<String, ExportedObject> e : conn.objectTree.getChildren(objectpath).entrySet()) {
+            final DBusInterface object = e.getValue().object.get();
+            if (null != object) {
+                objects.put(new Path(e.getKey()), getInterfacesAndProperties(conn, e.getValue(), object));
+            }
+        }
+        return objects;
+    }
+}
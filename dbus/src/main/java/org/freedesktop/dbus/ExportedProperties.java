@@ -0,0 +1,131 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext.localize;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers org.freedesktop.DBus.Properties for an exported object declaring its properties with
+ * {@link DBusProperty}.
+ */
+class ExportedProperties implements DBus.Properties {
+    private final Logger logger = LoggerFactory.getLogger(ExportedProperties.class);
+
+    private final AbstractConnection conn;
+    private final ExportedObject eo;
+    private final DBusInterface object;
+
+    public ExportedProperties(final AbstractConnection conn, final ExportedObject eo, final DBusInterface object) {
+        this.conn = conn;
+        this.eo = eo;
+        this.object = object;
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    private ExportedObject.Property getProperty(final String interface_name, final String property_name) {
+        if (null == interface_name || "".equals(interface_name)) {
+            for (final Map<String, ExportedObject.Property> ps : eo.properties.values()) {
+                if (ps.containsKey(property_name)) {
+                    return ps.get(property_name);
+                }
+            }
+        } else {
+            final Map<String, ExportedObject.Property> ps = eo.properties.get(interface_name);
+            if (null != ps && ps.containsKey(property_name)) {
+                return ps.get(property_name);
+            }
+        }
+        throw new DBus.Error.UnknownProperty(MessageFormat.format(localize("Unknown property {0}.{1}"),
+                new Object[] { interface_name, property_name }));
+    }
+
+    static Object invoke(final Method m, final Object object, final Object... args) {
+        try {
+            return m.invoke(object, args);
+        } catch (final InvocationTargetException ITe) {
+            if (ITe.getCause() instanceof DBusExecutionException) {
+                throw (DBusExecutionException) ITe.getCause();
+            }
+            throw new DBusExecutionException(ITe.getCause().getMessage());
+        } catch (final IllegalAccessException IAe) {
+            throw new DBusExecutionException(IAe.getMessage());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A> A Get(final String interface_name, final String property_name) {
+        final ExportedObject.Property p = getProperty(interface_name, property_name);
+        if (null == p.getter) {
+            throw new DBus.Error.AccessDenied(MessageFormat.format(localize("Property {0} cannot be read"),
+                    new Object[] { property_name }));
+        }
+        return (A) new Variant<>(invoke(p.getter, object), p.type);
+    }
+
+    @Override
+    public <A> void Set(final String interface_name, final String property_name, final A value) {
+        final ExportedObject.Property p = getProperty(interface_name, property_name);
+        if (null == p.setter) {
+            throw new DBus.Error.PropertyReadOnly(MessageFormat.format(localize("Property {0} cannot be written"),
+                    new Object[] { property_name }));
+        }
+        Object v;
+        try {
+            v = Marshalling.deSerializeParameter(value, p.type, conn);
+        } catch (final Exception e) {
+            if (AbstractConnection.EXCEPTION_DEBUG) {
+                logger.error("Exception", e);
+            }
+            throw new DBusExecutionException(MessageFormat.format(localize("Wrong type for property {0}: {1}"),
+                    new Object[] { property_name, e.getMessage() }));
+        }
+        invoke(p.setter, object, v);
+        try {
+            conn.getPropertiesEmitter().changed(object, property_name);
+        } catch (final DBusException DBe) {
+            if (AbstractConnection.EXCEPTION_DEBUG) {
+                logger.error("Exception", DBe);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Variant<?>> GetAll(final String interface_name) {
+        final Map<String, Variant<?>> values = new HashMap<>();
+        final Map<String, ExportedObject.Property> ps = eo.properties.get(interface_name);
+        if (null != ps) {
+            for (final ExportedObject.Property p : ps.values()) {
+                if (null != p.getter) {
+                    values.put(p.name, new Variant<>(invoke(p.getter, object), p.type));
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext.localize;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.MessageProtocolVersionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connections between peers in the same JVM, for the address type inmem:name=...
+ * <p>
+ * Each message is passed as one frame of its wire data through a lock-free queue, and the receiver parses
+ * its own copy of it, exactly as if it had been read from a socket. There are no sockets, no system calls
+ * and no authentication, since both ends are in the same process.
+ * </p>
+ * <p>
+ * A peer listens on a name with {@link #listen(String)} and accepts connections, other peers connect to
+ * the name with {@link #connect(String)}. {@link Transport} does both for addresses such as
+ * <code>inmem:name=test</code> and <code>inmem:name=test,listen=true</code>.
+ * </p>
+ */
+public class InMemoryTransport {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryTransport.class);
+
+    private static final Map<String, Listener> listeners = new ConcurrentHashMap<>();
+
+    /** Frames going one way, read by a single thread */
+    private static class Pipe {
+        private final Queue<byte[]> frames = new ConcurrentLinkedQueue<>();
+        private volatile Thread reader = null;
+        private volatile boolean closed = false;
+
+        void put(final byte[] frame) throws IOException {
+            if (closed) {
+                throw new EOFException(localize("Underlying transport returned EOF"));
+            }
+            frames.add(frame);
+            final Thread t = reader;
+            if (null != t) {
+                LockSupport.unpark(t);
+            }
+        }
+
+        byte[] take() throws IOException {
+            // register before looking, so a frame added meanwhile unparks us
+            reader = Thread.currentThread();
+            try {
+                while (true) {
+                    final byte[] frame = frames.poll();
+                    if (null != frame) {
+                        return frame;
+                    }
+                    if (closed) {
+                        throw new EOFException(localize("Underlying transport returned EOF"));
+                    }
+                    LockSupport.park(this);
+                }
+            } finally {
+                reader = null;
+            }
+        }
+
+        void close() {
+            closed = true;
+            final Thread t = reader;
+            if (null != t) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    private static class PipeReader extends MessageReader {
+        private final Logger logger = LoggerFactory.getLogger(PipeReader.class);
+        private final Pipe pipe;
+
+        public PipeReader(final Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        @Override
+        public Message readMessage() throws IOException, DBusException {
+            final byte[] frame = pipe.take();
+            final byte endian = frame[0];
+            final byte type = frame[1];
+            final byte protover = frame[3];
+            if (protover > Message.PROTOCOL) {
+                throw new MessageProtocolVersionException(MessageFormat
+                        .format(localize("Protocol version {0} is unsupported"), new Object[] { protover }));
+            }
+            // split the frame the way MessageReader reads it off a stream
+            int headerlen = (int) Message.demarshallint(frame, 12, endian, 4);
+            if (0 != headerlen % 8) {
+                headerlen += 8 - headerlen % 8;
+            }
+            final int bodylen = (int) Message.demarshallint(frame, 4, endian, 4);
+            final byte[] buf = Arrays.copyOfRange(frame, 0, 12);
+            final byte[] header = new byte[headerlen + 8];
+            System.arraycopy(frame, 12, header, 0, 4);
+            System.arraycopy(frame, 16, header, 8, headerlen);
+            final byte[] body = Arrays.copyOfRange(frame, 16 + headerlen, 16 + headerlen + bodylen);
+            final Message m = createMessage(type);
+            m.populate(buf, header, body);
+            logger.info("=> {}", m);
+            return m;
+        }
+
+        @Override
+        public void close() {
+            logger.info("Closing Message Reader");
+            pipe.close();
+        }
+    }
+
+    private static class PipeWriter extends MessageWriter {
+        private final Logger logger = LoggerFactory.getLogger(PipeWriter.class);
+        private final Pipe pipe;
+
+        public PipeWriter(final Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        @Override
+        public void writeMessage(final Message m, final boolean flush) throws IOException {
+            logger.info("<= {}", m);
+            if (null == m) {
+                return;
+            }
+            final byte[][] wiredata = m.getWireData();
+            if (null == wiredata) {
+                logger.warn("Message {} wire-data was null!", m);
+                return;
+            }
+            int length = 0;
+            for (final byte[] buf : wiredata) {
+                if (null == buf) {
+                    break;
+                }
+                length += buf.length;
+            }
+            final byte[] frame = new byte[length];
+            int offset = 0;
+            for (final byte[] buf : wiredata) {
+                if (null == buf) {
+                    break;
+                }
+                System.arraycopy(buf, 0, frame, offset, buf.length);
+                offset += buf.length;
+            }
+            pipe.put(frame);
+        }
+
+        @Override
+        public void close() {
+            logger.info("Closing Message Writer");
+            pipe.close();
+        }
+    }
+
+    /**
+     * One end of an in-memory connection.
+     */
+    public static class Endpoint {
+        public final MessageReader min;
+        public final MessageWriter mout;
+
+        Endpoint(final Pipe in, final Pipe out) {
+            min = new PipeReader(in);
+            mout = new PipeWriter(out);
+        }
+    }
+
+    /**
+     * Accepts connections made to a name.
+     */
+    public static class Listener {
+        private final String name;
+        private final BlockingQueue<Endpoint> pending = new LinkedBlockingQueue<>();
+        private volatile boolean closed = false;
+
+        Listener(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Wait for the next connection.
+         *
+         * @throws IOException If the listener is closed.
+         */
+        public Endpoint accept() throws IOException {
+            try {
+                while (!closed) {
+                    final Endpoint e = pending.take();
+                    if (e != CLOSED) {
+                        return e;
+                    }
+                }
+            } catch (final InterruptedException Ie) {
+                Thread.currentThread().interrupt();
+            }
+            throw new EOFException(localize("Listener closed: ") + name);
+        }
+
+        void offer(final Endpoint e) throws IOException {
+            if (closed) {
+                throw new IOException(localize("Nobody is listening on ") + name);
+            }
+            pending.add(e);
+        }
+
+        /**
+         * Stop accepting connections and free the name.
+         */
+        public void close() {
+            closed = true;
+            listeners.remove(name, this);
+            pending.add(CLOSED);
+        }
+    }
+
+    /** Wakes up accept when the listener is closed */
+    private static final Endpoint CLOSED = new Endpoint(new Pipe(), new Pipe());
+
+    /**
+     * Listen for connections on a name.
+     *
+     * @throws IOException If someone is already listening on the name.
+     */
+    public static Listener listen(final String name) throws IOException {
+        final Listener l = new Listener(name);
+        if (null != listeners.putIfAbsent(name, l)) {
+            throw new IOException(localize("Address already in use: ") + name);
+        }
+        LOGGER.debug("Listening on inmem:name={}", name);
+        return l;
+    }
+
+    /**
+     * Connect to the peer listening on a name.
+     *
+     * @return Our end of the connection.
+     * @throws IOException If nobody is listening on the name.
+     */
+    public static Endpoint connect(final String name) throws IOException {
+        final Listener l = listeners.get(name);
+        if (null == l) {
+            throw new IOException(localize("Nobody is listening on ") + name);
+        }
+        final Pipe up = new Pipe();
+        final Pipe down = new Pipe();
+        l.offer(new Endpoint(up, down));
+        LOGGER.debug("Connected to inmem:name={}", name);
+        return new Endpoint(down, up);
+    }
+
+    private InMemoryTransport() {
+    }
+}
@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.CompletionStage;
 
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.types.DBusListType;
@@ -62,6 +63,46 @@ public class Marshalling {
         return sb.toString();
     }
 
+    /**
+     * Returns the type of the value an exported or remote method replies with.
+     * For methods returning a CompletionStage this is the type the stage completes
+     * with, otherwise it is the generic return type of the method.
+     *
+     * @param m The method.
+     * @return The reply type, Void.TYPE if the method replies without a value.
+     */
+    public static Type getReplyType(final Method m) {
+        if (!CompletionStage.class.isAssignableFrom(m.getReturnType())) {
+            return m.getGenericReturnType();
+        }
+        final Type t = m.getGenericReturnType();
+        if (t instanceof ParameterizedType) {
+            final Type rt = ((ParameterizedType) t).getActualTypeArguments()[0];
+            if (!Void.class.equals(rt)) {
+                return rt;
+            }
+        }
+        return Void.TYPE;
+    }
+
+    /**
+     * Returns the class of the value an exported or remote method replies with.
+     *
+     * @param m The method.
+     * @return The reply class, Void.TYPE if the method replies without a value.
+     * @see #getReplyType(Method)
+     */
+    public static Class<?> getReplyClass(final Method m) {
+        final Type t = getReplyType(m);
+        if (t instanceof Class) {
+            return (Class<?>) t;
+        } else if (t instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) t).getRawType();
+        } else {
+            return Object.class;
+        }
+    }
+
     /**
      * Will return the DBus type corresponding to the given Java type.
      * Note, container type should have their ParameterizedType not their
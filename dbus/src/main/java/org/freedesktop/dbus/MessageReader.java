@@ -42,6 +42,32 @@ public class MessageReader {
         this.in = new BufferedInputStream(in);
     }
 
+    /**
+     * For readers which do not read from a stream.
+     */
+    protected MessageReader() {
+        this.in = null;
+    }
+
+    /**
+     * Returns an empty message of the given type, to populate from its wire data.
+     */
+    static Message createMessage(final byte type) throws MessageTypeException {
+        switch (type) {
+            case Message.MessageType.METHOD_CALL:
+                return new MethodCall();
+            case Message.MessageType.METHOD_RETURN:
+                return new MethodReturn();
+            case Message.MessageType.SIGNAL:
+                return new DBusSignal();
+            case Message.MessageType.ERROR:
+                return new Error();
+            default:
+                throw new MessageTypeException(
+                        MessageFormat.format(localize("Message type {0} unsupported"), new Object[] { type }));
+        }
+    }
+
     public Message readMessage() throws IOException, DBusException {
         int rv;
         /* Read the 12 byte fixed header, retrying as neccessary */
@@ -157,24 +183,7 @@ public class MessageReader {
             return null;
         }
 
-        Message m;
-        switch (type) {
-            case Message.MessageType.METHOD_CALL:
-                m = new MethodCall();
-                break;
-            case Message.MessageType.METHOD_RETURN:
-                m = new MethodReturn();
-                break;
-            case Message.MessageType.SIGNAL:
-                m = new DBusSignal();
-                break;
-            case Message.MessageType.ERROR:
-                m = new Error();
-                break;
-            default:
-                throw new MessageTypeException(
-                        MessageFormat.format(localize("Message type {0} unsupported"), new Object[] { type }));
-        }
+        final Message m = createMessage(type);
         if (logger.isTraceEnabled()) {
             logger.trace("{}", Hexdump.format(buf));
             logger.trace("{}", Hexdump.format(tbuf));
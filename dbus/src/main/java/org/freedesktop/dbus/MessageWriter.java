@@ -14,6 +14,8 @@ package org.freedesktop.dbus;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,40 +26,92 @@ import cx.ath.matthew.utils.Hexdump;
 public class MessageWriter {
     private final Logger logger = LoggerFactory.getLogger(MessageWriter.class);
 
+    /**
+     * Output which writes several buffers with a single call.
+     */
+    interface GatheringOutput {
+        void write(byte[][] bufs) throws IOException;
+    }
+
     private OutputStream out;
     private boolean isunix;
+    /** Writes held back buffers at once, on unix sockets */
+    private GatheringOutput gathering;
+    /** Buffers of messages held back for the next write to a unix socket */
+    private final List<byte[]> pending = new ArrayList<>();
 
     public MessageWriter(final OutputStream out) {
         this.out = out;
         this.isunix = false;
-        try {
-            if (out instanceof USOutputStream) {
-                this.isunix = true;
+        if (out instanceof GatheringOutput) {
+            this.gathering = (GatheringOutput) out;
+            this.isunix = true;
+        } else {
+            try {
+                if (out instanceof USOutputStream) {
+                    final USOutputStream us = (USOutputStream) out;
+                    this.gathering = new GatheringOutput() {
+                        @Override
+                        public void write(final byte[][] bufs) throws IOException {
+                            us.write(bufs);
+                        }
+                    };
+                    this.isunix = true;
+                }
+            } catch (final Throwable t) {
             }
-        } catch (final Throwable t) {
         }
         if (!this.isunix) {
             this.out = new BufferedOutputStream(this.out);
         }
     }
 
+    /**
+     * For writers which do not write to a stream.
+     */
+    protected MessageWriter() {
+        this.out = null;
+        this.isunix = false;
+    }
+
     public void writeMessage(final Message m) throws IOException {
+        writeMessage(m, true);
+    }
+
+    /**
+     * Write a message, optionally holding it back until a later message is written with flush set.
+     * Messages sent together, such as a batch of calls, then leave in as few writes as possible.
+     *
+     * @param m The message to write.
+     * @param flush Whether to send this and all held back messages now.
+     * @throws IOException If writing fails.
+     */
+    public void writeMessage(final Message m, final boolean flush) throws IOException {
         logger.info("<= ", m);
         if (null == m) {
+            if (flush) {
+                flush();
+            }
             return;
         }
         if (null == m.getWireData()) {
             logger.warn("Message {} wire-data was null!", m);
+            if (flush) {
+                flush();
+            }
             return;
         }
         if (isunix) {
-            logger.debug("Writing all {} buffers simultaneously to Unix Socket", m.getWireData().length);
-            if (logger.isTraceEnabled()) {
-                for (final byte[] buf : m.getWireData()) {
+            logger.debug("Queueing all {} buffers to write simultaneously to Unix Socket", m.getWireData().length);
+            for (final byte[] buf : m.getWireData()) {
+                if (null == buf) {
+                    break;
+                }
+                if (logger.isTraceEnabled()) {
                     logger.trace("({}): {}", buf, Hexdump.format(buf));
                 }
+                pending.add(buf);
             }
-            ((USOutputStream) out).write(m.getWireData());
         } else {
             for (final byte[] buf : m.getWireData()) {
                 logger.trace("({}): {}", buf, Hexdump.format(buf));
@@ -67,7 +121,22 @@ public class MessageWriter {
                 out.write(buf);
             }
         }
-        out.flush();
+        if (flush) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (isunix) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            final byte[][] bufs = pending.toArray(new byte[pending.size()][]);
+            pending.clear();
+            gathering.write(bufs);
+        } else {
+            out.flush();
+        }
     }
 
     public void close() throws IOException {
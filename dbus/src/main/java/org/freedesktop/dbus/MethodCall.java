@@ -14,6 +14,10 @@ package org.freedesktop.dbus;
 import static org.freedesktop.dbus.Gettext.localize;
 
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.MessageFormatException;
@@ -101,9 +105,38 @@ public class MethodCall extends Message {
         REPLY_WAIT_TIMEOUT = timeout;
     }
 
-    Message reply = null;
+    /**
+     * Returns the default timeout for method calls in ms.
+     */
+    public static long getDefaultTimeout() {
+        return REPLY_WAIT_TIMEOUT;
+    }
+
+    /** Bounds for the adaptive spin of {@link #awaitReply(long, AtomicInteger)}, in polls of the reply slot */
+    static final int MIN_SPINS = 1 << 4;
+    private static final int MAX_SPINS = 1 << 14;
+
+    private static final AtomicReferenceFieldUpdater<MethodCall, Message> REPLY = AtomicReferenceFieldUpdater
+            .newUpdater(MethodCall.class, Message.class, "reply");
+    private static final AtomicReferenceFieldUpdater<MethodCall, Runnable> HANDLER = AtomicReferenceFieldUpdater
+            .newUpdater(MethodCall.class, Runnable.class, "replyhandler");
+    /** Stands in for the reply handler once the reply has been set */
+    private static final Runnable REPLIED = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    volatile Message reply = null;
+    /** The thread in {@link #awaitReply(long, AtomicInteger)}, unparked when the reply is set */
+    private volatile Thread waiter = null;
+    /** The number of threads waiting on the monitor in {@link #getReply(long)}, changed with the monitor held */
+    private volatile int blocked = 0;
+    private volatile Runnable replyhandler = null;
+    /** Set when the call is cancelled, guarded by the pending calls of the connection */
+    volatile boolean cancelled = false;
 
-    public synchronized boolean hasReply() {
+    public boolean hasReply() {
         return null != reply;
     }
 
@@ -111,19 +144,30 @@ public class MethodCall extends Message {
      * Block (if neccessary) for a reply.
      *
      * @return The reply to this MethodCall, or null if a timeout happens.
-     * @param timeout The length of time to block before timing out (ms).
+     * @param timeout The length of time to block before timing out (ms), or 0 to wait without a timeout.
      */
     public synchronized Message getReply(final long timeout) {
         logger.trace("Blocking on {}", this);
-        if (null != reply) {
-            return reply;
-        }
+        final long deadline = System.currentTimeMillis() + timeout;
+        long left = timeout;
+        blocked++;
         try {
-            wait(timeout);
-            return reply;
+            while (null == reply) {
+                if (timeout <= 0) {
+                    wait();
+                    continue;
+                }
+                if (left <= 0) {
+                    break;
+                }
+                wait(left);
+                left = deadline - System.currentTimeMillis();
+            }
         } catch (final InterruptedException Ie) {
-            return reply;
+        } finally {
+            blocked--;
         }
+        return reply;
     }
 
     /**
@@ -132,23 +176,130 @@ public class MethodCall extends Message {
      *
      * @return The reply to this MethodCall, or null if a timeout happens.
      */
-    public synchronized Message getReply() {
-        logger.trace("Blocking on {}", this);
-        if (null != reply) {
-            return reply;
+    public Message getReply() {
+        return getReply(REPLY_WAIT_TIMEOUT);
+    }
+
+    /**
+     * Returns true if this call has been cancelled. A cancelled call is not sent if it is still queued,
+     * and its reply is dropped.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Block (if neccessary) for a reply, without taking the monitor of this call.
+     * The caller first spins briefly on the reply slot and then parks until the reader thread hands the reply
+     * over. The length of the spin adapts to how often a reply arrived while spinning.
+     *
+     * @return The reply to this MethodCall, or null if a timeout happens or the thread is interrupted.
+     * @param timeout The length of time to block before timing out (ms), or 0 to wait without a timeout.
+     * @param spins The length of the spin, shared by the calls of one connection and adapted by this call.
+     */
+    Message awaitReply(final long timeout, final AtomicInteger spins) {
+        Message r = reply;
+        if (null != r) {
+            return r;
         }
-        try {
-            wait(REPLY_WAIT_TIMEOUT);
-            return reply;
-        } catch (final InterruptedException Ie) {
-            return reply;
+        final int n = spins.get();
+        for (int i = 0; i < n; i++) {
+            r = reply;
+            if (null != r) {
+                if (n < MAX_SPINS) {
+                    spins.set(n << 1);
+                }
+                return r;
+            }
         }
+        if (n > MIN_SPINS) {
+            spins.set(n >> 1);
+        }
+        waiter = Thread.currentThread();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (null == (r = reply)) {
+            if (Thread.interrupted()) {
+                break;
+            }
+            if (timeout <= 0) {
+                LockSupport.park(this);
+                continue;
+            }
+            final long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                break;
+            }
+            LockSupport.parkNanos(this, left);
+        }
+        waiter = null;
+        return r;
+    }
+
+    /**
+     * Run a task once the reply to this call has been set. The task runs on the thread setting the reply, or at once
+     * if there already is a reply, so it must not block. Tasks run in the order they were added.
+     */
+    void whenReplied(final Runnable r) {
+        while (true) {
+            final Runnable h = replyhandler;
+            if (REPLIED == h) {
+                break;
+            }
+            final Runnable chained = null == h ? r : new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        h.run();
+                    } finally {
+                        r.run();
+                    }
+                }
+            };
+            if (HANDLER.compareAndSet(this, h, chained)) {
+                return;
+            }
+        }
+        r.run();
+    }
+
+    protected void setReply(final Message reply) {
+        setReply(reply, true);
+    }
+
+    /**
+     * Set the reply unless there already is one, e.g. to fail a call whose deadline has passed.
+     *
+     * @return true if the reply was set.
+     */
+    boolean setReplyIfAbsent(final Message reply) {
+        return setReply(reply, false);
     }
 
-    protected synchronized void setReply(final Message reply) {
+    /**
+     * Publishes the reply without taking the monitor. Only callers of {@link #getReply(long)} wait on the monitor,
+     * so it is taken to notify them only if there are any.
+     */
+    private boolean setReply(final Message reply, final boolean replace) {
         logger.trace("Setting reply to {} to {}", this, reply);
-        this.reply = reply;
-        notifyAll();
+        if (replace) {
+            this.reply = reply;
+        } else if (!REPLY.compareAndSet(this, null, reply)) {
+            return false;
+        }
+        final Thread t = waiter;
+        if (null != t) {
+            LockSupport.unpark(t);
+        }
+        if (0 != blocked) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        final Runnable r = HANDLER.getAndSet(this, REPLIED);
+        if (null != r && REPLIED != r) {
+            r.run();
+        }
+        return true;
     }
 
 }
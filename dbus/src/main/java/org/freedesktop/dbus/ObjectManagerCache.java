@@ -0,0 +1,362 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a local copy of the objects below a remote org.freedesktop.DBus.ObjectManager.
+ * <p>
+ * The cache reads the whole tree with one GetManagedObjects call and then follows the InterfacesAdded,
+ * InterfacesRemoved and PropertiesChanged signals, so the objects, their interfaces and their properties can be
+ * looked up without introspecting every node. Each signal is applied as a whole.
+ * </p>
+ * <p>
+ * While the cache is open, proxies the connection creates for objects it knows, e.g. for object paths returned by
+ * remote methods, take their interfaces from the cache instead of introspecting the object.
+ * </p>
+ * <p>
+ * The cache follows the process owning the bus name when the cache is created.
+ * </p>
+ */
+public class ObjectManagerCache {
+    private final Logger logger = LoggerFactory.getLogger(ObjectManagerCache.class);
+
+    /**
+     * Interface for listeners to changes of the cached objects.
+     */
+    public interface Listener {
+        /**
+         * Called after an object, or new interfaces of an object, have been added to the cache.
+         *
+         * @param cache The cache which changed.
+         * @param objectpath The path of the object.
+         * @param interfaces The interfaces which were added, with their properties.
+         */
+        public void interfacesAdded(ObjectManagerCache cache, String objectpath,
+                Map<String, Map<String, Variant<?>>> interfaces);
+
+        /**
+         * Called after an object, or interfaces of an object, have been removed from the cache.
+         *
+         * @param cache The cache which changed.
+         * @param objectpath The path of the object.
+         * @param interfaces The interfaces which were removed.
+         */
+        public void interfacesRemoved(ObjectManagerCache cache, String objectpath, List<String> interfaces);
+    }
+
+    /** A change waiting to be passed to the listeners; either added or removed is set */
+    private static class Change {
+        final String objectpath;
+        final Map<String, Map<String, Variant<?>>> added;
+        final List<String> removed;
+
+        public Change(final String objectpath, final Map<String, Map<String, Variant<?>>> added,
+                final List<String> removed) {
+            this.objectpath = objectpath;
+            this.added = added;
+            this.removed = removed;
+        }
+    }
+
+    private final DBusConnection conn;
+    private final String busname;
+    private final String objectpath;
+    private final String owner;
+    private final DBus.ObjectManager manager;
+    private final DBusMatchRule addedrule;
+    private final DBusMatchRule removedrule;
+    private final DBusMatchRule changedrule;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final LinkedList<Change> changes = new LinkedList<>();
+    private boolean notifying = false;
+    /** Immutable map of the objects to their interfaces and properties, replaced on every change */
+    private volatile Map<String, Map<String, Map<String, Variant<?>>>> objects = Collections.emptyMap();
+    /** Number of changes applied, written while holding the lock on this */
+    private volatile long version = 0;
+    private static final int MAX_REFRESH_ATTEMPTS = 3;
+
+    private final DBusSigHandler<DBus.ObjectManager.InterfacesAdded> addedhandler =
+            new DBusSigHandler<DBus.ObjectManager.InterfacesAdded>() {
+        @Override
+        @DBusInline
+        public void handle(final DBus.ObjectManager.InterfacesAdded s) {
+            final Map<String, Map<String, Variant<?>>> added = null == s.interfaces_and_properties
+                    ? Collections.<String, Map<String, Variant<?>>> emptyMap()
+                    : Collections.unmodifiableMap(s.interfaces_and_properties);
+            final String path = s.object_path.getPath();
+            synchronized (ObjectManagerCache.this) {
+                final Map<String, Map<String, Map<String, Variant<?>>>> o = new TreeMap<>(objects);
+                final Map<String, Map<String, Variant<?>>> ifaces = o.containsKey(path)
+                        ? new HashMap<>(o.get(path))
+                        : new HashMap<String, Map<String, Variant<?>>>();
+                for (final Map.Entry<String, Map<String, Variant<?>>> e : added.entrySet()) {
+                    ifaces.put(e.getKey(), Collections.unmodifiableMap(new HashMap<>(e.getValue())));
+                }
+                o.put(path, Collections.unmodifiableMap(ifaces));
+                update(o);
+            }
+            queueChange(new Change(path, added, null));
+        }
+    };
+
+    private final DBusSigHandler<DBus.ObjectManager.InterfacesRemoved> removedhandler =
+            new DBusSigHandler<DBus.ObjectManager.InterfacesRemoved>() {
+        @Override
+        @DBusInline
+        public void handle(final DBus.ObjectManager.InterfacesRemoved s) {
+            final List<String> removed = null == s.interfaces ? Collections.<String> emptyList()
+                    : Collections.unmodifiableList(s.interfaces);
+            final String path = s.object_path.getPath();
+            synchronized (ObjectManagerCache.this) {
+                if (!objects.containsKey(path)) {
+                    return;
+                }
+                final Map<String, Map<String, Map<String, Variant<?>>>> o = new TreeMap<>(objects);
+                final Map<String, Map<String, Variant<?>>> ifaces = new HashMap<>(o.get(path));
+                ifaces.keySet().removeAll(removed);
+                if (ifaces.isEmpty()) {
+                    o.remove(path);
+                } else {
+                    o.put(path, Collections.unmodifiableMap(ifaces));
+                }
+                update(o);
+            }
+            queueChange(new Change(path, null, removed));
+        }
+    };
+
+    private final DBusSigHandler<DBus.Properties.PropertiesChanged> changedhandler =
+            new DBusSigHandler<DBus.Properties.PropertiesChanged>() {
+        @Override
+        @DBusInline
+        public void handle(final DBus.Properties.PropertiesChanged s) {
+            final String path = s.getPath();
+            synchronized (ObjectManagerCache.this) {
+                if (!objects.containsKey(path) || !objects.get(path).containsKey(s.interface_name)) {
+                    return;
+                }
+                final Map<String, Map<String, Map<String, Variant<?>>>> o = new TreeMap<>(objects);
+                final Map<String, Map<String, Variant<?>>> ifaces = new HashMap<>(o.get(path));
+                final Map<String, Variant<?>> values = new HashMap<>(ifaces.get(s.interface_name));
+                if (null != s.changed_properties) {
+                    values.putAll(s.changed_properties);
+                }
+                if (null != s.invalidated_properties) {
+                    // the values are not known any more; read them with a PropertiesCache if needed
+                    values.keySet().removeAll(s.invalidated_properties);
+                }
+                ifaces.put(s.interface_name, Collections.unmodifiableMap(values));
+                o.put(path, Collections.unmodifiableMap(ifaces));
+                update(o);
+            }
+        }
+    };
+
+    /**
+     * Create a cache and read all objects below the given object manager.
+     *
+     * @param conn The connection to the bus.
+     * @param busname The bus name of the process exporting the object manager.
+     * @param objectpath The path of the object manager.
+     * @throws DBusException If the objects could not be read or the signals could not be watched.
+     */
+    public ObjectManagerCache(final DBusConnection conn, final String busname, final String objectpath)
+            throws DBusException {
+        this.conn = conn;
+        this.busname = busname;
+        this.objectpath = objectpath;
+        owner = conn.getNameOwnerCache().getOwner(busname);
+        manager = conn.getRemoteObject(owner, objectpath, DBus.ObjectManager.class);
+        addedrule = new DBusMatchRule(DBus.ObjectManager.InterfacesAdded.class, owner, objectpath);
+        removedrule = new DBusMatchRule(DBus.ObjectManager.InterfacesRemoved.class, owner, objectpath);
+        changedrule = new DBusMatchRule(DBus.Properties.PropertiesChanged.class, owner, null);
+        // watch before reading, so no change is lost in between
+        conn.addSigHandler(addedrule, addedhandler);
+        conn.addSigHandler(removedrule, removedhandler);
+        conn.addSigHandler(changedrule, changedhandler);
+        refresh();
+        conn.addObjectManagerCache(this);
+    }
+
+    /**
+     * Read all objects again from the remote object manager.
+     */
+    public void refresh() {
+        // a change received while reading may be newer than what was read, so read again in that case
+        for (int i = 0;; i++) {
+            final long before = version;
+            final Map<Path, Map<String, Map<String, Variant<?>>>> managed = manager.GetManagedObjects();
+            synchronized (this) {
+                if (before == version || i >= MAX_REFRESH_ATTEMPTS) {
+                    final Map<String, Map<String, Map<String, Variant<?>>>> o = new TreeMap<>();
+                    for (final Map.Entry<Path, Map<String, Map<String, Variant<?>>>> e : managed.entrySet()) {
+                        final Map<String, Map<String, Variant<?>>> ifaces = new HashMap<>();
+                        for (final Map.Entry<String, Map<String, Variant<?>>> f : e.getValue().entrySet()) {
+                            ifaces.put(f.getKey(), Collections.unmodifiableMap(new HashMap<>(f.getValue())));
+                        }
+                        o.put(e.getKey().getPath(), Collections.unmodifiableMap(ifaces));
+                    }
+                    update(o);
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Called while holding the lock on this */
+    private void update(final Map<String, Map<String, Map<String, Variant<?>>>> o) {
+        objects = Collections.unmodifiableMap(o);
+        version++;
+    }
+
+    /**
+     * Returns the paths of all objects below the object manager.
+     *
+     * @return An unmodifiable, sorted set of paths.
+     */
+    public Set<String> getObjectPaths() {
+        return objects.keySet();
+    }
+
+    /**
+     * Returns all objects below the object manager.
+     *
+     * @return An unmodifiable map of the paths to the interfaces of the objects, and the interfaces to their
+     *         properties.
+     */
+    public Map<String, Map<String, Map<String, Variant<?>>>> getObjects() {
+        return objects;
+    }
+
+    /**
+     * Returns the interfaces of an object.
+     *
+     * @param path The path of the object.
+     * @return An unmodifiable map of the interfaces to their properties, or null if there is no such object.
+     */
+    public Map<String, Map<String, Variant<?>>> getInterfaces(final String path) {
+        return objects.get(path);
+    }
+
+    /**
+     * Returns the properties of one interface of an object.
+     *
+     * @param path The path of the object.
+     * @param iface The interface.
+     * @return An unmodifiable map of the properties to their values, or null if the object has no such interface.
+     */
+    public Map<String, Variant<?>> getProperties(final String path, final String iface) {
+        final Map<String, Map<String, Variant<?>>> ifaces = objects.get(path);
+        return null == ifaces ? null : ifaces.get(iface);
+    }
+
+    public void addListener(final Listener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(final Listener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Stop following changes to the objects.
+     *
+     * @throws DBusException If the signals could not be unwatched.
+     */
+    public void close() throws DBusException {
+        conn.removeObjectManagerCache(this);
+        conn.removeSigHandler(addedrule, addedhandler);
+        conn.removeSigHandler(removedrule, removedhandler);
+        conn.removeSigHandler(changedrule, changedhandler);
+    }
+
+    public String getBusName() {
+        return busname;
+    }
+
+    public String getObjectPath() {
+        return objectpath;
+    }
+
+    /**
+     * Returns the unique name of the process exporting the object manager.
+     */
+    String getOwner() {
+        return owner;
+    }
+
+    private void queueChange(final Change c) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        synchronized (changes) {
+            changes.add(c);
+            if (notifying) {
+                return;
+            }
+            notifying = true;
+        }
+        // listeners are called on a worker, one change at a time
+        if (!conn.getSignalPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                notifyListeners();
+            }
+        })) {
+            logger.warn("Dropping object changes below {} {}: {} is full", busname, objectpath, conn.getSignalPool());
+            synchronized (changes) {
+                changes.clear();
+                notifying = false;
+            }
+        }
+    }
+
+    private void notifyListeners() {
+        while (true) {
+            Change c;
+            synchronized (changes) {
+                if (changes.isEmpty()) {
+                    notifying = false;
+                    return;
+                }
+                c = changes.removeFirst();
+            }
+            for (final Listener l : listeners) {
+                try {
+                    if (null != c.added) {
+                        l.interfacesAdded(this, c.objectpath, c.added);
+                    } else {
+                        l.interfacesRemoved(this, c.objectpath, c.removed);
+                    }
+                } catch (final RuntimeException Re) {
+                    if (AbstractConnection.EXCEPTION_DEBUG) {
+                        logger.error("Exception", Re);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -11,165 +11,447 @@
 
 package org.freedesktop.dbus;
 
-import java.util.regex.Pattern;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Keeps track of the exported objects for introspection data
+ * Keeps track of the exported objects and fallbacks of a connection, for dispatch and introspection.
+ * <p>
+ * The tree has one node per path element. Lookups walk down the tree without locking, so they take
+ * time proportional to the depth of the path, not the number of exported objects. Adding and removing
+ * only locks the nodes being changed.
+ * </p>
+ * <p>
+ * A reverse index maps each exported object, by identity, to the paths it is exported on. The index
+ * does not keep weakly exported objects alive.
+ * </p>
  */
 class ObjectTree {
     private final Logger logger = LoggerFactory.getLogger(ObjectTree.class);
 
     class TreeNode {
-        String name;
-        ExportedObject object;
-        String data;
-        TreeNode right;
-        TreeNode down;
+        final String name;
+        final TreeNode parent;
+        final Map<String, TreeNode> children = new ConcurrentSkipListMap<>();
+        volatile ExportedObject object;
+        volatile ExportedObject fallback;
+        /** Set once the node has been unlinked from its parent, guarded by the node itself */
+        boolean removed = false;
+        /** Bumped whenever the object or the children of this node change, guarded by the node itself */
+        volatile int version = 0;
+        volatile Introspection introspection;
 
-        public TreeNode(final String name) {
+        public TreeNode(final String name, final TreeNode parent) {
             this.name = name;
+            this.parent = parent;
         }
 
-        public TreeNode(final String name, final ExportedObject object, final String data) {
-            this.name = name;
-            this.object = object;
+        boolean isEmpty() {
+            return null == object && null == fallback && children.isEmpty();
+        }
+    }
+
+    /** Introspection reply of a node, valid while the node is at the same version */
+    private static class Introspection {
+        final int version;
+        final String data;
+
+        public Introspection(final int version, final String data) {
+            this.version = version;
             this.data = data;
         }
     }
 
-    private TreeNode root;
+    /** Identity of an exported object, which does not keep the object alive */
+    private static class ObjectKey extends WeakReference<DBusInterface> {
+        private final int hash;
+
+        public ObjectKey(final DBusInterface object, final ReferenceQueue<DBusInterface> queue) {
+            super(object, queue);
+            hash = System.identityHashCode(object);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ObjectKey)) {
+                return false;
+            }
+            final DBusInterface object = get();
+            return null != object && object == ((ObjectKey) o).get();
+        }
+    }
+
+    private final TreeNode root;
+    private final Map<ObjectKey, NavigableSet<String>> paths = new ConcurrentHashMap<>();
+    private final ReferenceQueue<DBusInterface> collected = new ReferenceQueue<>();
 
     public ObjectTree() {
-        root = new TreeNode("");
+        root = new TreeNode("", null);
     }
 
-    public static final Pattern slashpattern = Pattern.compile("/");
+    /**
+     * Returns the node for the given path, or null if there is none.
+     */
+    private TreeNode find(final String path) {
+        if (null == path) {
+            return null;
+        }
+        TreeNode t = root;
+        int start = 1;
+        while (null != t && start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (-1 == end) {
+                end = path.length();
+            }
+            t = t.children.get(path.substring(start, end));
+            start = end + 1;
+        }
+        return t;
+    }
 
-    private TreeNode recursiveFind(final TreeNode current, final String path) {
-        if ("/".equals(path)) {
-            return current;
+    /**
+     * Returns the node for the given path, creating it and all its parents if neccessary.
+     * The node may be removed concurrently; callers check {@link TreeNode#removed} while holding its lock
+     * and try again.
+     */
+    private TreeNode findOrCreate(final String path) {
+        TreeNode t = root;
+        int start = 1;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (-1 == end) {
+                end = path.length();
+            }
+            final String name = path.substring(start, end);
+            TreeNode c = t.children.get(name);
+            if (null == c) {
+                synchronized (t) {
+                    if (!t.removed) {
+                        c = t.children.get(name);
+                        if (null == c) {
+                            c = new TreeNode(name, t);
+                            t.children.put(name, c);
+                            t.version++;
+                        }
+                    }
+                }
+            }
+            if (null == c) {
+                // raced with the removal of a node on the path, start again
+                t = root;
+                start = 1;
+            } else {
+                t = c;
+                start = end + 1;
+            }
         }
-        final String[] elements = path.split("/", 2);
-        // this is us or a parent node
-        if (path.startsWith(current.name)) {
-            // this is us
-            if (path.equals(current.name)) {
-                return current;
+        return t;
+    }
+
+    /**
+     * Unlinks empty nodes from the given node upwards.
+     */
+    private void prune(TreeNode t) {
+        while (null != t && t != root) {
+            synchronized (t) {
+                if (t.removed || !t.isEmpty()) {
+                    return;
+                }
+                t.removed = true;
+            }
+            synchronized (t.parent) {
+                t.parent.children.remove(t.name, t);
+                t.parent.version++;
             }
-            // recurse down
-            else {
-                if (current.down == null) {
-                    return null;
-                } else {
-                    return recursiveFind(current.down, elements[1]);
+            t = t.parent;
+        }
+    }
+
+    /**
+     * Export an object on the given path.
+     *
+     * @return false if there is already an object exported on this path.
+     */
+    public boolean add(final String path, final ExportedObject object) {
+        logger.debug("Adding {} to object tree", path);
+        while (true) {
+            final TreeNode t = findOrCreate(path);
+            synchronized (t) {
+                if (!t.removed) {
+                    if (null != t.object) {
+                        return false;
+                    }
+                    t.object = object;
+                    t.version++;
+                    addPath(object, path);
+                    return true;
                 }
             }
-        } else if (current.right == null) {
-            return null;
-        } else if (0 > current.right.name.compareTo(elements[0])) {
+        }
+    }
+
+    public ExportedObject remove(final String path) {
+        return remove(path, null);
+    }
+
+    /**
+     * Stop exporting the object on the given path.
+     *
+     * @param object If not null, only remove the export if it is still this object.
+     * @return The object which was removed, or null if nothing was removed.
+     */
+    public ExportedObject remove(final String path, final ExportedObject object) {
+        logger.debug("Removing {} from object tree", path);
+        final TreeNode t = find(path);
+        if (null == t) {
             return null;
         }
-        // recurse right
-        else {
-            return recursiveFind(current.right, path);
+        final ExportedObject removed;
+        synchronized (t) {
+            if (null != object && t.object != object) {
+                return null;
+            }
+            removed = t.object;
+            removePath(t.object, path);
+            t.object = null;
+            t.version++;
         }
+        prune(t);
+        return removed;
     }
 
-    private TreeNode recursiveAdd(final TreeNode current, final String path, final ExportedObject object,
-            final String data) {
-        final String[] elements = slashpattern.split(path, 2);
-        // this is us or a parent node
-        if (path.startsWith(current.name)) {
-            // this is us
-            if (1 == elements.length || "".equals(elements[1])) {
-                current.object = object;
-                current.data = data;
-            }
-            // recurse down
-            else {
-                if (current.down == null) {
-                    final String[] el = elements[1].split("/", 2);
-                    current.down = new TreeNode(el[0]);
+    /**
+     * Returns the object exported on exactly the given path, or null.
+     */
+    public ExportedObject get(final String path) {
+        final TreeNode t = find(path);
+        return null == t ? null : t.object;
+    }
+
+    public void addFallback(final String path, final ExportedObject object) {
+        logger.debug("Adding fallback on {} of {}", path, object);
+        while (true) {
+            final TreeNode t = findOrCreate(path);
+            synchronized (t) {
+                if (!t.removed) {
+                    t.fallback = object;
+                    return;
                 }
-                current.down = recursiveAdd(current.down, elements[1], object, data);
             }
         }
-        // need to create a new sub-tree on the end
-        else if (current.right == null) {
-            current.right = new TreeNode(elements[0]);
-            current.right = recursiveAdd(current.right, path, object, data);
+    }
+
+    public void removeFallback(final String path) {
+        logger.debug("Removing fallback on {}", path);
+        final TreeNode t = find(path);
+        if (null == t) {
+            return;
         }
-        // need to insert here
-        else if (0 > current.right.name.compareTo(elements[0])) {
-            final TreeNode t = new TreeNode(elements[0]);
-            t.right = current.right;
-            current.right = t;
-            current.right = recursiveAdd(current.right, path, object, data);
+        synchronized (t) {
+            t.fallback = null;
         }
-        // recurse right
-        else {
-            current.right = recursiveAdd(current.right, path, object, data);
+        prune(t);
+    }
+
+    /**
+     * Returns the fallback registered on the longest prefix of the given path, or null.
+     */
+    public ExportedObject getFallback(final String path) {
+        TreeNode t = root;
+        ExportedObject best = root.fallback;
+        int start = 1;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (-1 == end) {
+                end = path.length();
+            }
+            t = t.children.get(path.substring(start, end));
+            if (null == t) {
+                break;
+            }
+            final ExportedObject eo = t.fallback;
+            if (null != eo) {
+                best = eo;
+            }
+            start = end + 1;
         }
-        return current;
+        logger.debug("Found fallback for {} of {}", path, best);
+        return best;
     }
 
-    public void add(final String path, final ExportedObject object, final String data) {
-        logger.debug("Adding {} to object tree", path);
-        root = recursiveAdd(root, path, object, data);
+    /**
+     * Returns a path the given object is exported on, or null if it is not exported.
+     */
+    public String getPath(final DBusInterface object) {
+        final NavigableSet<String> p = paths.get(new ObjectKey(object, null));
+        if (null != p) {
+            final Iterator<String> i = p.iterator();
+            if (i.hasNext()) {
+                return i.next();
+            }
+        }
+        return null;
     }
 
-    public void remove(final String path) {
-        logger.debug("Removing {} from object tree", path);
-        final TreeNode t = recursiveFind(root, path);
-        t.object = null;
-        t.data = null;
+    /**
+     * Returns the objects exported below the given path, not including the path itself.
+     *
+     * @return The objects by path, in path order.
+     */
+    public Map<String, ExportedObject> getChildren(final String path) {
+        final Map<String, ExportedObject> objects = new TreeMap<>();
+        final TreeNode t = find(path);
+        if (null != t) {
+            final String prefix = "/".equals(path) ? "" : path;
+            for (final TreeNode c : t.children.values()) {
+                collectChildren(objects, prefix, c);
+            }
+        }
+        return objects;
     }
 
+    private void collectChildren(final Map<String, ExportedObject> objects, final String prefix, final TreeNode t) {
+        final String path = prefix + "/" + t.name;
+        final ExportedObject eo = t.object;
+        if (null != eo && null != eo.object.get()) {
+            objects.put(path, eo);
+        }
+        for (final TreeNode c : t.children.values()) {
+            collectChildren(objects, path, c);
+        }
+    }
+
+    /**
+     * Returns all paths the given object is exported on, empty if it is not exported.
+     */
+    public Set<String> getPaths(final DBusInterface object) {
+        final NavigableSet<String> p = paths.get(new ObjectKey(object, null));
+        return null == p ? Collections.<String> emptySet() : Collections.unmodifiableSet(p);
+    }
+
+    private void addPath(final ExportedObject eo, final String path) {
+        final DBusInterface object = eo.object.get();
+        if (null == object) {
+            return;
+        }
+        synchronized (paths) {
+            expungeCollected();
+            final ObjectKey key = new ObjectKey(object, collected);
+            NavigableSet<String> p = paths.get(key);
+            if (null == p) {
+                p = new ConcurrentSkipListSet<>();
+                paths.put(key, p);
+            }
+            p.add(path);
+        }
+    }
+
+    private void removePath(final ExportedObject eo, final String path) {
+        final DBusInterface object = null == eo ? null : eo.object.get();
+        synchronized (paths) {
+            expungeCollected();
+            if (null == object) {
+                return;
+            }
+            final ObjectKey key = new ObjectKey(object, null);
+            final NavigableSet<String> p = paths.get(key);
+            if (null != p) {
+                p.remove(path);
+                if (p.isEmpty()) {
+                    paths.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the index entries of weakly exported objects which have been collected.
+     */
+    private void expungeCollected() {
+        Reference<? extends DBusInterface> r;
+        while (null != (r = collected.poll())) {
+            paths.remove(r);
+        }
+    }
+
+    /**
+     * Returns the introspection data for the given path, or null if there is no node on it.
+     * The reply is cached on the node until its object or children change.
+     */
     public String Introspect(final String path) {
-        TreeNode t = recursiveFind(root, path);
+        final TreeNode t = find(path);
         if (null == t) {
             return null;
         }
+        // read the version first, so a change while building leaves the stored reply stale
+        final int version = t.version;
+        final Introspection cached = t.introspection;
+        if (null != cached && cached.version == version) {
+            return cached.data;
+        }
         final StringBuilder sb = new StringBuilder();
         sb.append("<node name=\"");
         sb.append(path);
         sb.append("\">\n");
-        if (null != t.data) {
-            sb.append(t.data);
+        final ExportedObject eo = t.object;
+        if (null != eo) {
+            sb.append(eo.introspectiondata);
         }
-        t = t.down;
-        while (null != t) {
+        for (final String name : t.children.keySet()) {
             sb.append("<node name=\"");
-            sb.append(t.name);
+            sb.append(name);
             sb.append("\"/>\n");
-            t = t.right;
         }
         sb.append("</node>");
-        return sb.toString();
+        final String data = sb.toString();
+        t.introspection = new Introspection(version, data);
+        return data;
     }
 
-    private String recursivePrint(final TreeNode current) {
-        String s = "";
-        if (null != current) {
-            s += current.name;
-            if (null != current.object) {
-                s += "*";
-            }
-            if (null != current.down) {
-                s += "/{" + recursivePrint(current.down) + "}";
-            }
-            if (null != current.right) {
-                s += ", " + recursivePrint(current.right);
+    private void recursivePrint(final StringBuilder sb, final TreeNode current) {
+        sb.append(current.name);
+        if (null != current.object) {
+            sb.append('*');
+        }
+        if (!current.children.isEmpty()) {
+            sb.append("/{");
+            boolean first = true;
+            for (final TreeNode c : current.children.values()) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                first = false;
+                recursivePrint(sb, c);
             }
+            sb.append('}');
         }
-        return s;
     }
 
     @Override
     public String toString() {
-        return recursivePrint(root);
+        final StringBuilder sb = new StringBuilder();
+        recursivePrint(sb, root);
+        return sb.toString();
     }
 }
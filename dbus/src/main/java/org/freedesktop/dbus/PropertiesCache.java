@@ -0,0 +1,289 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a local copy of the properties of one interface of a remote object.
+ * <p>
+ * The cache reads all properties once with org.freedesktop.DBus.Properties.GetAll and then follows the
+ * PropertiesChanged signal, so reads are answered locally. Each signal is applied as a whole, readers see either
+ * all or none of its changes. Properties which are only invalidated by the remote object are read again on the
+ * next access.
+ * </p>
+ * <p>
+ * Reading all properties again is a synchronous call made on the thread accessing the cache, so a read of an
+ * invalidated property blocks like a method call and must not be done from a {@link DBusInline} handler. If
+ * changes keep arriving while the properties are read, the cache keeps the values it has and reads them again on
+ * the next access, so no change is lost.
+ * </p>
+ * <p>
+ * The cache follows the process owning the bus name when the cache is created.
+ * </p>
+ */
+public class PropertiesCache implements DBusSigHandler<DBus.Properties.PropertiesChanged> {
+    private final Logger logger = LoggerFactory.getLogger(PropertiesCache.class);
+
+    /**
+     * Interface for listeners to changes of the cached properties.
+     */
+    public interface Listener {
+        /**
+         * Called after a change has been applied to the cache. Listeners are called one change at a time,
+         * in the order the changes were received.
+         *
+         * @param cache The cache which changed.
+         * @param changed The properties which changed, with their new values.
+         * @param invalidated The properties which changed without their new value being sent.
+         */
+        public void propertiesChanged(PropertiesCache cache, Map<String, Variant<?>> changed,
+                List<String> invalidated);
+    }
+
+    /** An immutable state of the cache */
+    private static class Snapshot {
+        final Map<String, Variant<?>> values;
+        final Set<String> invalidated;
+        /** Set if all properties have to be read again on the next access */
+        final boolean stale;
+
+        public Snapshot(final Map<String, Variant<?>> values, final Set<String> invalidated, final boolean stale) {
+            this.values = Collections.unmodifiableMap(values);
+            this.invalidated = Collections.unmodifiableSet(invalidated);
+            this.stale = stale;
+        }
+    }
+
+    /** A change waiting to be passed to the listeners */
+    private static class Change {
+        final Map<String, Variant<?>> changed;
+        final List<String> invalidated;
+
+        public Change(final Map<String, Variant<?>> changed, final List<String> invalidated) {
+            this.changed = changed;
+            this.invalidated = invalidated;
+        }
+    }
+
+    private final DBusConnection conn;
+    private final String busname;
+    private final String objectpath;
+    private final String iface;
+    private final String owner;
+    private final DBusMatchRule rule;
+    private final DBus.Properties properties;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final LinkedList<Change> changes = new LinkedList<>();
+    private boolean notifying = false;
+    private volatile Snapshot snapshot = new Snapshot(new HashMap<String, Variant<?>>(), new HashSet<String>(),
+            true);
+    /** Number of changes applied, written while holding the lock on this */
+    private volatile long version = 0;
+    private static final int MAX_REFRESH_ATTEMPTS = 3;
+
+    /**
+     * Create a cache and read all properties of the given interface.
+     *
+     * @param conn The connection to the bus.
+     * @param busname The bus name of the process exporting the object.
+     * @param objectpath The path of the object.
+     * @param iface The interface the properties belong to.
+     * @throws DBusException If the properties could not be read or the signal could not be watched.
+     */
+    public PropertiesCache(final DBusConnection conn, final String busname, final String objectpath,
+            final String iface) throws DBusException {
+        this.conn = conn;
+        this.busname = busname;
+        this.objectpath = objectpath;
+        this.iface = iface;
+        owner = conn.getNameOwnerCache().getOwner(busname);
+        properties = conn.getRemoteObject(owner, objectpath, DBus.Properties.class);
+        rule = new DBusMatchRule(DBus.Properties.PropertiesChanged.class, owner, objectpath);
+        // watch before reading, so no change is lost in between
+        conn.addSigHandler(rule, this);
+        refresh();
+    }
+
+    /**
+     * Read all properties again from the remote object. This is a synchronous call on the calling thread.
+     */
+    public void refresh() {
+        // a change received while reading may be newer than what was read, so read again in that case
+        for (int i = 0; i < MAX_REFRESH_ATTEMPTS; i++) {
+            final long before = version;
+            final Map<String, Variant<?>> values = properties.GetAll(iface);
+            synchronized (this) {
+                if (before == version) {
+                    snapshot = new Snapshot(new HashMap<>(values), new HashSet<String>(), false);
+                    return;
+                }
+            }
+        }
+        // keep the changes applied so far, and try again on the next access
+        logger.debug("Properties of {} {} kept changing while being read", busname, objectpath);
+        synchronized (this) {
+            snapshot = new Snapshot(new HashMap<>(snapshot.values), new HashSet<>(snapshot.invalidated), true);
+        }
+    }
+
+    /**
+     * Returns the value of a property. If the property has been invalidated, all properties are read again first.
+     *
+     * @param name The name of the property.
+     * @return The value, or null if the object has no such property.
+     */
+    @SuppressWarnings("unchecked")
+    public <A> A get(final String name) {
+        final Variant<?> v = getVariant(name);
+        return null == v ? null : (A) v.getValue();
+    }
+
+    /**
+     * Returns the value of a property, as a variant. If the property has been invalidated, all properties are read
+     * again first.
+     *
+     * @param name The name of the property.
+     * @return The value, or null if the object has no such property.
+     */
+    public Variant<?> getVariant(final String name) {
+        Snapshot s = snapshot;
+        if (s.stale || s.invalidated.contains(name)) {
+            refresh();
+            s = snapshot;
+        }
+        return s.values.get(name);
+    }
+
+    /**
+     * Returns all cached properties. If any property has been invalidated, all properties are read again first.
+     *
+     * @return An unmodifiable map of the properties to their values.
+     */
+    public Map<String, Variant<?>> getAll() {
+        Snapshot s = snapshot;
+        if (s.stale || !s.invalidated.isEmpty()) {
+            refresh();
+            s = snapshot;
+        }
+        return s.values;
+    }
+
+    public void addListener(final Listener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(final Listener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Stop following changes to the properties.
+     *
+     * @throws DBusException If the signal could not be unwatched.
+     */
+    public void close() throws DBusException {
+        conn.removeSigHandler(rule, this);
+    }
+
+    public String getBusName() {
+        return busname;
+    }
+
+    public String getObjectPath() {
+        return objectpath;
+    }
+
+    public String getInterface() {
+        return iface;
+    }
+
+    @Override
+    @DBusInline
+    public void handle(final DBus.Properties.PropertiesChanged s) {
+        if (!iface.equals(s.interface_name)) {
+            return;
+        }
+        logger.debug("Applying {}", s);
+        final Map<String, Variant<?>> changed = null == s.changed_properties
+                ? Collections.<String, Variant<?>> emptyMap()
+                : Collections.unmodifiableMap(s.changed_properties);
+        final List<String> invalidated = null == s.invalidated_properties ? Collections.<String> emptyList()
+                : Collections.unmodifiableList(s.invalidated_properties);
+        synchronized (this) {
+            final Map<String, Variant<?>> values = new HashMap<>(snapshot.values);
+            final Set<String> inv = new HashSet<>(snapshot.invalidated);
+            values.putAll(changed);
+            inv.removeAll(changed.keySet());
+            inv.addAll(invalidated);
+            snapshot = new Snapshot(values, inv, snapshot.stale);
+            version++;
+        }
+        if (listeners.isEmpty()) {
+            return;
+        }
+        synchronized (changes) {
+            changes.add(new Change(changed, invalidated));
+            if (notifying) {
+                return;
+            }
+            notifying = true;
+        }
+        // listeners are called on a worker, one change at a time
+        if (!conn.getSignalPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                notifyListeners();
+            }
+        })) {
+            logger.warn("Dropping property changes on {} {}: {} is full", busname, objectpath, conn.getSignalPool());
+            synchronized (changes) {
+                changes.clear();
+                notifying = false;
+            }
+        }
+    }
+
+    private void notifyListeners() {
+        while (true) {
+            Change c;
+            synchronized (changes) {
+                if (changes.isEmpty()) {
+                    notifying = false;
+                    return;
+                }
+                c = changes.removeFirst();
+            }
+            for (final Listener l : listeners) {
+                try {
+                    l.propertiesChanged(this, c.changed, c.invalidated);
+                } catch (final RuntimeException Re) {
+                    if (AbstractConnection.EXCEPTION_DEBUG) {
+                        logger.error("Exception", Re);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext.localize;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Announces changes of properties declared with {@link DBusProperty} with the PropertiesChanged signal.
+ * <p>
+ * Changes are coalesced: all changes to the properties of one interface of an object which are announced
+ * between {@link #begin()} and {@link #commit()} on the same thread, or within the time window set with
+ * {@link #setWindow(long)}, are sent as one signal. The values sent are read from the object when the signal
+ * is sent, so a property changed several times is sent once with its latest value.
+ * </p>
+ */
+public class PropertiesEmitter {
+    private final Logger logger = LoggerFactory.getLogger(PropertiesEmitter.class);
+
+    /** Changed properties by object, interface and name */
+    private static class Batch {
+        final Map<DBusInterface, Map<String, Set<String>>> changes = new IdentityHashMap<>();
+        int depth = 0;
+
+        void add(final DBusInterface object, final String iface, final String property) {
+            Map<String, Set<String>> ifaces = changes.get(object);
+            if (null == ifaces) {
+                ifaces = new TreeMap<>();
+                changes.put(object, ifaces);
+            }
+            Set<String> props = ifaces.get(iface);
+            if (null == props) {
+                props = new TreeSet<>();
+                ifaces.put(iface, props);
+            }
+            props.add(property);
+        }
+    }
+
+    private final AbstractConnection conn;
+    private final ThreadLocal<Batch> transaction = new ThreadLocal<>();
+    private Batch pending = null;
+    private long window = 0;
+    private Timer timer = null;
+
+    PropertiesEmitter(final AbstractConnection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Announce a change of a property. The property is looked up on all interfaces of the object.
+     *
+     * @param object The exported object.
+     * @param property The name of the property.
+     * @throws DBusException If the object does not declare the property.
+     */
+    public void changed(final DBusInterface object, final String property) throws DBusException {
+        boolean found = false;
+        for (final Map.Entry<String, Map<String, ExportedObject.Property>> e : ExportedObject
+                .getProperties(object.getClass()).entrySet()) {
+            if (e.getValue().containsKey(property)) {
+                changed(object, e.getKey(), property);
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new DBusException(MessageFormat.format(localize("Unknown property {0}.{1}"),
+                    new Object[] { object.getClass().getName(), property }));
+        }
+    }
+
+    /**
+     * Announce a change of a property.
+     *
+     * @param object The exported object.
+     * @param iface The D-Bus name of the interface declaring the property.
+     * @param property The name of the property.
+     */
+    public void changed(final DBusInterface object, final String iface, final String property) {
+        final Batch t = transaction.get();
+        if (null != t) {
+            t.add(object, iface, property);
+            return;
+        }
+        synchronized (this) {
+            if (window > 0) {
+                if (null == pending) {
+                    pending = new Batch();
+                    if (null == timer) {
+                        timer = new Timer("DBus Properties", true);
+                    }
+                    timer.schedule(new TimerTask() {
+                        @Override
+                        public void run() {
+                            flush();
+                        }
+                    }, window);
+                }
+                pending.add(object, iface, property);
+                return;
+            }
+        }
+        final Batch b = new Batch();
+        b.add(object, iface, property);
+        send(b);
+    }
+
+    /**
+     * Start collecting the changes announced on this thread. Calls may be nested, the changes are sent when the
+     * outermost transaction is committed.
+     */
+    public void begin() {
+        Batch t = transaction.get();
+        if (null == t) {
+            t = new Batch();
+            transaction.set(t);
+        }
+        t.depth++;
+    }
+
+    /**
+     * Send the changes collected since {@link #begin()} on this thread, one signal per object path and interface.
+     */
+    public void commit() {
+        final Batch t = transaction.get();
+        if (null == t) {
+            return;
+        }
+        if (--t.depth > 0) {
+            return;
+        }
+        transaction.remove();
+        send(t);
+    }
+
+    /**
+     * Set the time window in which changes announced outside a transaction are collected before being sent.
+     *
+     * @param window The window in milliseconds, 0 to send every change immediately. Default is 0.
+     */
+    public void setWindow(final long window) {
+        synchronized (this) {
+            this.window = window;
+        }
+        if (0 == window) {
+            flush();
+        }
+    }
+
+    public synchronized long getWindow() {
+        return window;
+    }
+
+    /**
+     * Send the changes collected in the current time window now.
+     */
+    public void flush() {
+        Batch b;
+        synchronized (this) {
+            b = pending;
+            pending = null;
+        }
+        if (null != b) {
+            send(b);
+        }
+    }
+
+    /**
+     * Send pending changes and stop the timer.
+     */
+    void shutdown() {
+        flush();
+        synchronized (this) {
+            if (null != timer) {
+                timer.cancel();
+                timer = null;
+            }
+        }
+    }
+
+    private void send(final Batch b) {
+        for (final Map.Entry<DBusInterface, Map<String, Set<String>>> o : b.changes.entrySet()) {
+            final DBusInterface object = o.getKey();
+            final Set<String> paths = conn.objectTree.getPaths(object);
+            if (paths.isEmpty()) {
+                continue;
+            }
+            Map<String, Map<String, ExportedObject.Property>> properties;
+            try {
+                properties = ExportedObject.getProperties(object.getClass());
+            } catch (final DBusException DBe) {
+                continue;
+            }
+            for (final Map.Entry<String, Set<String>> i : o.getValue().entrySet()) {
+                final Map<String, ExportedObject.Property> ps = properties.get(i.getKey());
+                final Map<String, Variant<?>> changed = new HashMap<>();
+                final List<String> invalidated = new ArrayList<>();
+                for (final String name : i.getValue()) {
+                    final ExportedObject.Property p = null == ps ? null : ps.get(name);
+                    if (null == p || null == p.getter) {
+                        invalidated.add(name);
+                        continue;
+                    }
+                    try {
+                        changed.put(name, new Variant<>(ExportedProperties.invoke(p.getter, object), p.type));
+                    } catch (final DBusExecutionException | IllegalArgumentException e) {
+                        if (AbstractConnection.EXCEPTION_DEBUG) {
+                            logger.error("Exception", e);
+                        }
+                        invalidated.add(name);
+                    }
+                }
+                for (final String path : paths) {
+                    try {
+                        conn.sendSignal(new DBus.Properties.PropertiesChanged(path, i.getKey(), changed, invalidated));
+                    } catch (final DBusException DBe) {
+                        if (AbstractConnection.EXCEPTION_DEBUG) {
+                            logger.error("Exception", DBe);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+/**
+ * Describes how a {@link DBusConnection} recovers when its connection to the bus is lost.
+ * <p>
+ * The connection tries to connect again, waiting twice as long after each failed attempt, up to the maximum delay.
+ * Once connected it says Hello. When the bus has answered, it adds the match rules of all signal handlers and
+ * requests the well known bus names it owned, in one pipelined burst. Exported objects stay exported. Unique names of other connections may have changed, so
+ * cached owners of bus names and introspection data are dropped.
+ * </p>
+ * <p>
+ * Calls waiting for replies when the connection is lost fail with org.freedesktop.DBus.Local.Disconnected.
+ * Messages sent while reconnecting are either held until the connection is back or fail at once.
+ * </p>
+ */
+public class ReconnectPolicy {
+    private final long initialdelay;
+    private final long maxdelay;
+    private final int maxattempts;
+    private final boolean holdoutgoing;
+
+    /**
+     * Create a policy.
+     *
+     * @param initialdelay The time to wait before the first attempt, in ms.
+     * @param maxdelay The longest time to wait between attempts, in ms.
+     * @param maxattempts The number of attempts before giving up and disconnecting, or 0 to try forever.
+     * @param holdoutgoing true to hold messages sent while reconnecting until the connection is back, false to fail
+     *            them at once.
+     */
+    public ReconnectPolicy(final long initialdelay, final long maxdelay, final int maxattempts,
+            final boolean holdoutgoing) {
+        this.initialdelay = initialdelay;
+        this.maxdelay = Math.max(initialdelay, maxdelay);
+        this.maxattempts = maxattempts;
+        this.holdoutgoing = holdoutgoing;
+    }
+
+    /**
+     * Create a policy which tries forever, starting after 100ms and waiting at most 30s between attempts, and holds
+     * messages meanwhile.
+     */
+    public ReconnectPolicy() {
+        this(100, 30000, 0, true);
+    }
+
+    public long getInitialDelay() {
+        return initialdelay;
+    }
+
+    public long getMaxDelay() {
+        return maxdelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxattempts;
+    }
+
+    public boolean isHoldingOutgoing() {
+        return holdoutgoing;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectPolicy(initialdelay=" + initialdelay + ", maxdelay=" + maxdelay + ", maxattempts="
+                + maxattempts + ", holdoutgoing=" + holdoutgoing + ")";
+    }
+}
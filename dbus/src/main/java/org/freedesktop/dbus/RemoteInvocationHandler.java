@@ -19,6 +19,13 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
 import java.text.MessageFormat;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import org.freedesktop.DBus;
 import org.freedesktop.dbus.exceptions.DBusException;
@@ -36,7 +43,7 @@ class RemoteInvocationHandler implements InvocationHandler {
 
     public static Object convertRV(final String sig, Object[] rp, final Method m, final AbstractConnection conn)
             throws DBusException {
-        final Class<? extends Object> c = m.getReturnType();
+        final Class<? extends Object> c = Marshalling.getReplyClass(m);
 
         if (null == rp) {
             if (null == c || Void.TYPE.equals(c)) {
@@ -46,8 +53,8 @@ class RemoteInvocationHandler implements InvocationHandler {
             }
         } else {
             try {
-                LOGGER.trace("Converting return parameters from {} to type {}", rp, m.getGenericReturnType());
-                rp = Marshalling.deSerializeParameters(rp, new Type[] { m.getGenericReturnType() }, conn);
+                LOGGER.trace("Converting return parameters from {} to type {}", rp, Marshalling.getReplyType(m));
+                rp = Marshalling.deSerializeParameters(rp, new Type[] { Marshalling.getReplyType(m) }, conn);
             } catch (final Exception e) {
                 if (AbstractConnection.EXCEPTION_DEBUG) {
                     LOGGER.error("Exception", e);
@@ -86,8 +93,11 @@ class RemoteInvocationHandler implements InvocationHandler {
         }
     }
 
-    public static Object executeRemoteMethod(final RemoteObject ro, final Method m, final AbstractConnection conn,
-            final int syncmethod, final CallbackHandler<?> callback, Object... args) throws DBusExecutionException {
+    /**
+     * Build the message for a call of a method on a remote object.
+     */
+    static MethodCall createCall(final RemoteObject ro, final Method m, final AbstractConnection conn,
+            final int syncmethod, Object... args) throws DBusExecutionException {
         final Type[] ts = m.getGenericParameterTypes();
         String sig = null;
         if (ts.length > 0) {
@@ -134,6 +144,70 @@ class RemoteInvocationHandler implements InvocationHandler {
             }
             throw new DBusExecutionException(localize("Failed to construct outgoing method call: ") + DBe.getMessage());
         }
+        return call;
+    }
+
+    /**
+     * Returns how long to wait for the reply to a call: the timeout of the proxy, else the one set with
+     * {@link DBusTimeout} on the method or its interface, else the default. 0 or less means no timeout.
+     */
+    static long getTimeout(final RemoteObject ro, final Method m) {
+        if (ro.timeout > 0) {
+            return ro.timeout;
+        }
+        DBusTimeout t = m.getAnnotation(DBusTimeout.class);
+        if (null == t) {
+            t = m.getDeclaringClass().getAnnotation(DBusTimeout.class);
+        }
+        return null == t ? MethodCall.getDefaultTimeout() : t.value();
+    }
+
+    /**
+     * Fail the callback of a call with NoReply if there is no reply within the given time, unless it is 0 or less.
+     */
+    private static void scheduleTimeout(final AbstractConnection conn, final MethodCall call, final long timeout) {
+        if (timeout <= 0) {
+            // no deadline
+            return;
+        }
+        final Runnable expire = new Runnable() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public void run() {
+                final CallbackHandler<Object> cbh = (CallbackHandler<Object>) conn.cancelCall(call);
+                if (null == cbh) {
+                    return;
+                }
+                final boolean queued = conn.getCallbackPool().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        cbh.handleError(new DBus.Error.NoReply(localize("No reply within specified time")));
+                    }
+                });
+                if (!queued) {
+                    LOGGER.warn("Dropping timeout of {}: {} is full", call, conn.getCallbackPool());
+                }
+            }
+        };
+        final ScheduledFuture<?> task;
+        try {
+            task = conn.getScheduler().schedule(expire, timeout, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException REe) {
+            // disconnected, the call fails anyway
+            return;
+        }
+        call.whenReplied(new Runnable() {
+            @Override
+            public void run() {
+                task.cancel(false);
+            }
+        });
+    }
+
+    public static Object executeRemoteMethod(final RemoteObject ro, final Method m, final AbstractConnection conn,
+            final int syncmethod, final CallbackHandler<?> callback, final Object... args)
+            throws DBusExecutionException {
+        final MethodCall call = createCall(ro, m, conn, syncmethod, args);
         if (null == conn.outgoing) {
             throw new NotConnected(localize("Not Connected"));
         }
@@ -143,13 +217,17 @@ class RemoteInvocationHandler implements InvocationHandler {
                 conn.queueOutgoing(call);
                 return new DBusAsyncReply<>(call, m, conn);
             case CALL_TYPE_CALLBACK:
+                final DBusAsyncReply<?> asr = new DBusAsyncReply<>(call, m, conn);
                 synchronized (conn.pendingCallbacks) {
                     LOGGER.trace("Queueing Callback {} for {}", callback, call);
                     conn.pendingCallbacks.put(call, callback);
-                    conn.pendingCallbackReplys.put(call, new DBusAsyncReply<>(call, m, conn));
+                    conn.pendingCallbackReplys.put(call, asr);
+                }
+                if (0 == (call.getFlags() & Message.Flags.NO_REPLY_EXPECTED)) {
+                    scheduleTimeout(conn, call, getTimeout(ro, m));
                 }
                 conn.queueOutgoing(call);
-                return null;
+                return asr;
             case CALL_TYPE_SYNC:
                 conn.queueOutgoing(call);
                 break;
@@ -160,9 +238,25 @@ class RemoteInvocationHandler implements InvocationHandler {
             return null;
         }
 
-        final Message reply = call.getReply();
+        // a worker blocking here may be needed to run a nested call back from the peer
+        final WorkerPool pool = WorkerPool.getCurrentPool();
+        Message reply;
+        final Thread spare = null == pool ? null : pool.beginBlocking();
+        final long timeout = getTimeout(ro, m);
+        try {
+            reply = conn.isLowLatency() ? call.awaitReply(timeout, conn.getReplySpins()) : call.getReply(timeout);
+        } finally {
+            if (null != pool) {
+                pool.endBlocking(spare);
+            }
+        }
         if (null == reply) {
-            throw new DBus.Error.NoReply(localize("No reply within specified time"));
+            conn.cancelCall(call);
+            if (null == call.reply) {
+                throw new DBus.Error.NoReply(localize("No reply within specified time"));
+            }
+            // the reply arrived just in time
+            reply = call.reply;
         }
 
         if (reply instanceof Error) {
@@ -229,6 +323,49 @@ class RemoteInvocationHandler implements InvocationHandler {
             return remote.toString();
         }
 
+        if (method.getReturnType().isAssignableFrom(CompletableFuture.class)
+                && CompletionStage.class.isAssignableFrom(method.getReturnType())) {
+            return executeDeferredMethod(method, args);
+        }
+        final long ttl = SingleFlight.getTTL(method);
+        if (ttl >= 0) {
+            return conn.singleflight.execute(remote, method, args, ttl);
+        }
         return executeRemoteMethod(remote, method, conn, CALL_TYPE_SYNC, null, args);
     }
+
+    private CompletableFuture<Object> executeDeferredMethod(final Method method, final Object[] args) {
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        try {
+            if (method.isAnnotationPresent(DBus.Method.NoReply.class)) {
+                executeRemoteMethod(remote, method, conn, CALL_TYPE_SYNC, null, args);
+                future.complete(null);
+            } else {
+                final DBusAsyncReply<?> asr = (DBusAsyncReply<?>) executeRemoteMethod(remote, method, conn,
+                        CALL_TYPE_CALLBACK, new CallbackHandler<Object>() {
+                            @Override
+                            public void handle(final Object r) {
+                                future.complete(r);
+                            }
+
+                            @Override
+                            public void handleError(final DBusExecutionException e) {
+                                future.completeExceptionally(e);
+                            }
+                        }, args);
+                // cancelling the future cancels the call
+                future.whenComplete(new BiConsumer<Object, Throwable>() {
+                    @Override
+                    public void accept(final Object r, final Throwable t) {
+                        if (t instanceof CancellationException) {
+                            asr.cancel();
+                        }
+                    }
+                });
+            }
+        } catch (final DBusExecutionException DBEe) {
+            future.completeExceptionally(DBEe);
+        }
+        return future;
+    }
 }
@@ -16,13 +16,21 @@ class RemoteObject {
     String objectpath;
     Class<? extends DBusInterface> iface;
     boolean autostart;
+    /** Time to wait for replies to calls on this object in ms, or 0 for the default */
+    long timeout;
 
     public RemoteObject(final String busname, final String objectpath, final Class<? extends DBusInterface> iface,
             final boolean autostart) {
+        this(busname, objectpath, iface, autostart, 0);
+    }
+
+    public RemoteObject(final String busname, final String objectpath, final Class<? extends DBusInterface> iface,
+            final boolean autostart, final long timeout) {
         this.busname = busname;
         this.objectpath = objectpath;
         this.iface = iface;
         this.autostart = autostart;
+        this.timeout = timeout;
     }
 
     @Override
@@ -56,13 +64,13 @@ class RemoteObject {
             return false;
         }
 
-        return true;
+        return them.autostart == this.autostart && them.timeout == this.timeout;
     }
 
     @Override
     public int hashCode() {
         return (null == busname ? 0 : busname.hashCode()) + objectpath.hashCode()
-                + (null == iface ? 0 : iface.hashCode());
+                + (null == iface ? 0 : iface.hashCode()) + (autostart ? 1 : 0) + (int) timeout;
     }
 
     public boolean autoStarting() {
@@ -81,6 +89,10 @@ class RemoteObject {
         return iface;
     }
 
+    public long getTimeout() {
+        return timeout;
+    }
+
     @Override
     public String toString() {
         return busname + ":" + objectpath + ":" + iface;
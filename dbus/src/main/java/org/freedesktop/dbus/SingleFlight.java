@@ -0,0 +1,210 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces identical synchronous calls marked with {@link DBusSingleFlight}, and keeps their replies for the
+ * configured time.
+ */
+class SingleFlight {
+    private final Logger logger = LoggerFactory.getLogger(SingleFlight.class);
+
+    /** Marker for methods which are not coalesced */
+    private static final long DISABLED = -1;
+    private static final Map<Method, Long> ttls = new ConcurrentHashMap<>();
+
+    /** A call, identified by its target, method and arguments */
+    private static class Key {
+        final RemoteObject remote;
+        final Method method;
+        final Object[] args;
+        final int hash;
+
+        public Key(final RemoteObject remote, final Method method, final Object[] args) {
+            this.remote = remote;
+            this.method = method;
+            this.args = null == args ? new Object[0] : args.clone();
+            hash = 31 * (31 * remote.hashCode() + method.hashCode()) + Arrays.deepHashCode(this.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) o;
+            return hash == k.hash && remote.equals(k.remote) && method.equals(k.method)
+                    && Arrays.deepEquals(args, k.args);
+        }
+    }
+
+    /** One call in flight, then its outcome until it expires */
+    private static class Flight {
+        private boolean done = false;
+        private Object result;
+        private RuntimeException error;
+        /** Time in ms after which the outcome may not be used any more, set once done */
+        private long expires;
+
+        synchronized void complete(final Object result, final RuntimeException error, final long expires) {
+            this.result = result;
+            this.error = error;
+            this.expires = expires;
+            done = true;
+            notifyAll();
+        }
+
+        synchronized boolean isExpired(final long now) {
+            return done && expires <= now;
+        }
+
+        synchronized Object await() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (final InterruptedException Ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (null != error) {
+                throw error;
+            }
+            return result;
+        }
+    }
+
+    /** Number of replies kept between sweeps for expired replies */
+    private static final int SWEEP_INTERVAL = 64;
+
+    private final AbstractConnection conn;
+    private final Map<Key, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicInteger kept = new AtomicInteger();
+
+    public SingleFlight(final AbstractConnection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Returns how long replies to the method are kept, 0 if they are only shared while in flight,
+     * or a negative value if calls of the method are not coalesced.
+     */
+    static long getTTL(final Method m) {
+        Long ttl = ttls.get(m);
+        if (null == ttl) {
+            DBusSingleFlight sf = m.getAnnotation(DBusSingleFlight.class);
+            if (null == sf) {
+                sf = m.getDeclaringClass().getAnnotation(DBusSingleFlight.class);
+            }
+            ttl = null == sf ? DISABLED : Math.max(0, sf.ttl());
+            ttls.put(m, ttl);
+        }
+        return ttl;
+    }
+
+    /**
+     * Make a synchronous call, or wait for an identical call in flight, or return a kept reply.
+     */
+    Object execute(final RemoteObject remote, final Method m, final Object[] args, final long ttl) {
+        final Key key = new Key(remote, m, args);
+        final long now = System.currentTimeMillis();
+        Flight f = flights.get(key);
+        if (null != f && f.isExpired(now)) {
+            flights.remove(key, f);
+            f = null;
+        }
+        if (null == f) {
+            final Flight mine = new Flight();
+            f = flights.putIfAbsent(key, mine);
+            if (null == f) {
+                return lead(key, mine, remote, m, args, ttl);
+            }
+        }
+        logger.trace("Joining call of {} on {}", m.getName(), remote);
+        final WorkerPool pool = WorkerPool.getCurrentPool();
+        final Thread spare = null == pool ? null : pool.beginBlocking();
+        try {
+            return f.await();
+        } finally {
+            if (null != pool) {
+                pool.endBlocking(spare);
+            }
+        }
+    }
+
+    private Object lead(final Key key, final Flight f, final RemoteObject remote, final Method m, final Object[] args,
+            final long ttl) {
+        Object result = null;
+        RuntimeException error = null;
+        try {
+            result = RemoteInvocationHandler.executeRemoteMethod(remote, m, conn,
+                    RemoteInvocationHandler.CALL_TYPE_SYNC, null, args);
+            return result;
+        } catch (final RuntimeException Re) {
+            error = Re;
+            throw Re;
+        } finally {
+            // errors are never kept
+            final boolean keep = null == error && ttl > 0;
+            f.complete(result, error, keep ? System.currentTimeMillis() + ttl : 0);
+            if (!keep) {
+                flights.remove(key, f);
+            } else if (0 == kept.incrementAndGet() % SWEEP_INTERVAL) {
+                sweep(System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Drop the kept replies which have expired, so replies to calls which are not repeated do not pile up.
+     */
+    private void sweep(final long now) {
+        final Iterator<Flight> i = flights.values().iterator();
+        while (i.hasNext()) {
+            if (i.next().isExpired(now)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop the kept replies of calls on the given remote object, or of all calls if it is null.
+     * Calls in flight are not affected.
+     */
+    void invalidate(final RemoteObject remote) {
+        final Iterator<Map.Entry<Key, Flight>> i = flights.entrySet().iterator();
+        while (i.hasNext()) {
+            final Map.Entry<Key, Flight> e = i.next();
+            if ((null == remote || remote.equals(e.getKey().remote)) && e.getValue().isExpired(Long.MAX_VALUE)) {
+                i.remove();
+            }
+        }
+    }
+}
@@ -13,25 +13,17 @@ package org.freedesktop.dbus;
 
 import static org.freedesktop.dbus.Gettext.localize;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.text.Collator;
 import java.text.ParseException;
 import java.util.Random;
-import java.util.Vector;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +36,12 @@ import cx.ath.matthew.utils.Hexdump;
 public class Transport {
     private final Logger logger = LoggerFactory.getLogger(Transport.class);
 
+    /**
+     * Whether clients on unix sockets send AUTH EXTERNAL without asking the server for its mechanisms first.
+     * Set DBUS_JAVA_NO_SASL_PIPELINING to use the full handshake instead.
+     */
+    private static final boolean SASL_PIPELINING = null == System.getenv("DBUS_JAVA_NO_SASL_PIPELINING");
+
     public static class SASL {
         private final Logger logger = LoggerFactory.getLogger(SASL.class);
 
@@ -61,42 +59,42 @@ public class Transport {
             public Command(final String s) throws IOException {
                 final String[] ss = s.split(" ");
                 logger.trace("Creating command from: {}", (Object[]) ss);
-                if (0 == col.compare(ss[0], "OK")) {
+                if ("OK".equalsIgnoreCase(ss[0])) {
                     command = COMMAND_OK;
                     data = ss[1];
-                } else if (0 == col.compare(ss[0], "AUTH")) {
+                } else if ("AUTH".equalsIgnoreCase(ss[0])) {
                     command = COMMAND_AUTH;
                     if (ss.length > 1) {
-                        if (0 == col.compare(ss[1], "EXTERNAL")) {
+                        if ("EXTERNAL".equalsIgnoreCase(ss[1])) {
                             mechs = AUTH_EXTERNAL;
-                        } else if (0 == col.compare(ss[1], "DBUS_COOKIE_SHA1")) {
+                        } else if ("DBUS_COOKIE_SHA1".equalsIgnoreCase(ss[1])) {
                             mechs = AUTH_SHA;
-                        } else if (0 == col.compare(ss[1], "ANONYMOUS")) {
+                        } else if ("ANONYMOUS".equalsIgnoreCase(ss[1])) {
                             mechs = AUTH_ANON;
                         }
                     }
                     if (ss.length > 2) {
                         data = ss[2];
                     }
-                } else if (0 == col.compare(ss[0], "DATA")) {
+                } else if ("DATA".equalsIgnoreCase(ss[0])) {
                     command = COMMAND_DATA;
                     data = ss[1];
-                } else if (0 == col.compare(ss[0], "REJECTED")) {
+                } else if ("REJECTED".equalsIgnoreCase(ss[0])) {
                     command = COMMAND_REJECTED;
                     for (int i = 1; i < ss.length; i++) {
-                        if (0 == col.compare(ss[i], "EXTERNAL")) {
+                        if ("EXTERNAL".equalsIgnoreCase(ss[i])) {
                             mechs |= AUTH_EXTERNAL;
-                        } else if (0 == col.compare(ss[i], "DBUS_COOKIE_SHA1")) {
+                        } else if ("DBUS_COOKIE_SHA1".equalsIgnoreCase(ss[i])) {
                             mechs |= AUTH_SHA;
-                        } else if (0 == col.compare(ss[i], "ANONYMOUS")) {
+                        } else if ("ANONYMOUS".equalsIgnoreCase(ss[i])) {
                             mechs |= AUTH_ANON;
                         }
                     }
-                } else if (0 == col.compare(ss[0], "BEGIN")) {
+                } else if ("BEGIN".equalsIgnoreCase(ss[0])) {
                     command = COMMAND_BEGIN;
-                } else if (0 == col.compare(ss[0], "CANCEL")) {
+                } else if ("CANCEL".equalsIgnoreCase(ss[0])) {
                     command = COMMAND_CANCEL;
-                } else if (0 == col.compare(ss[0], "ERROR")) {
+                } else if ("ERROR".equalsIgnoreCase(ss[0])) {
                     command = COMMAND_ERROR;
                     data = ss[1];
                 } else {
@@ -131,93 +129,15 @@ public class Transport {
             }
         }
 
-        private static Collator col = Collator.getInstance();
-        static {
-            col.setDecomposition(Collator.FULL_DECOMPOSITION);
-            col.setStrength(Collator.PRIMARY);
-        }
         public static final int LOCK_TIMEOUT = 1000;
+        /** Milliseconds to wait before looking for a cookie again */
+        public static final int LOCK_RETRY = 10;
         public static final int NEW_KEY_TIMEOUT_SECONDS = 60 * 5;
         public static final int EXPIRE_KEYS_TIMEOUT_SECONDS = NEW_KEY_TIMEOUT_SECONDS + 60 * 2;
         public static final int MAX_TIME_TRAVEL_SECONDS = 60 * 5;
         public static final int COOKIE_TIMEOUT = 240;
         public static final String COOKIE_CONTEXT = "org_freedesktop_java";
 
-        private String findCookie(final String context, final String ID) throws IOException {
-            final String homedir = System.getProperty("user.home");
-            final File f = new File(homedir + "/.dbus-keyrings/" + context);
-            final BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
-            String s = null;
-            String cookie = null;
-            final long now = System.currentTimeMillis() / 1000;
-            while (null != (s = r.readLine())) {
-                final String[] line = s.split(" ");
-                final long timestamp = Long.parseLong(line[1]);
-                if (line[0].equals(ID) && !(timestamp < 0 || now + MAX_TIME_TRAVEL_SECONDS < timestamp
-                        || now - EXPIRE_KEYS_TIMEOUT_SECONDS > timestamp)) {
-                    cookie = line[2];
-                    break;
-                }
-            }
-            r.close();
-            return cookie;
-        }
-
-        private void addCookie(final String context, final String ID, final long timestamp, final String cookie)
-                throws IOException {
-            final String homedir = System.getProperty("user.home");
-            final File keydir = new File(homedir + "/.dbus-keyrings/");
-            final File cookiefile = new File(homedir + "/.dbus-keyrings/" + context);
-            final File lock = new File(homedir + "/.dbus-keyrings/" + context + ".lock");
-            final File temp = new File(homedir + "/.dbus-keyrings/" + context + ".temp");
-
-            // ensure directory exists
-            if (!keydir.exists()) {
-                keydir.mkdirs();
-            }
-
-            // acquire lock
-            final long start = System.currentTimeMillis();
-            while (!lock.createNewFile() && LOCK_TIMEOUT > System.currentTimeMillis() - start) {
-                ;
-            }
-
-            // read old file
-            final Vector<String> lines = new Vector<>();
-            if (cookiefile.exists()) {
-                final BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(cookiefile)));
-                String s = null;
-                while (null != (s = r.readLine())) {
-                    final String[] line = s.split(" ");
-                    final long time = Long.parseLong(line[1]);
-                    // expire stale cookies
-                    if (timestamp - time < COOKIE_TIMEOUT) {
-                        lines.add(s);
-                    }
-                }
-                r.close();
-            }
-
-            // add cookie
-            lines.add(ID + " " + timestamp + " " + cookie);
-
-            // write temp file
-            final PrintWriter w = new PrintWriter(new FileOutputStream(temp));
-            for (final String l : lines) {
-                w.println(l);
-            }
-            w.close();
-
-            // atomically move to old file
-            if (!temp.renameTo(cookiefile)) {
-                cookiefile.delete();
-                temp.renameTo(cookiefile);
-            }
-
-            // remove lock
-            lock.delete();
-        }
-
         /**
          * Takes the string, encodes it as hex and then turns it into a string again.
          * No, I don't know why either.
@@ -394,10 +314,18 @@ public class Transport {
                     Message.marshallintBig(System.currentTimeMillis(), buf, 0, 8);
                     final String clientchallenge = stupidlyEncode(md.digest(buf));
                     md.reset();
+                    final CookieKeyring keyring = CookieKeyring.get(context);
                     final long start = System.currentTimeMillis();
-                    String cookie = null;
+                    String cookie = keyring.find(ID);
                     while (null == cookie && System.currentTimeMillis() - start < LOCK_TIMEOUT) {
-                        cookie = findCookie(context, ID);
+                        // the server may still be writing the keyring
+                        try {
+                            Thread.sleep(LOCK_RETRY);
+                        } catch (final InterruptedException Ie) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                        cookie = keyring.find(ID);
                     }
                     if (null == cookie) {
                         logger.debug("Did not find a cookie in context {} with ID {}", context, ID);
@@ -434,28 +362,45 @@ public class Transport {
                         case AUTH_ANON:
                             return OK;
                         case AUTH_EXTERNAL:
-                            if (0 == col.compare(Uid, c.getData())
-                                    && (null == kernelUid || 0 == col.compare(Uid, kernelUid))) {
+                            if (Uid.equalsIgnoreCase(c.getData())
+                                    && (null == kernelUid || Uid.equalsIgnoreCase(kernelUid))) {
                                 return OK;
                             } else {
                                 return ERROR;
                             }
                         case AUTH_SHA:
                             final String context = COOKIE_CONTEXT;
-                            final long id = System.currentTimeMillis();
+                            final CookieKeyring keyring = CookieKeyring.get(context);
+                            final long now = System.currentTimeMillis();
                             final byte[] buf = new byte[8];
-                            Message.marshallintBig(id, buf, 0, 8);
+                            Message.marshallintBig(now, buf, 0, 8);
                             challenge = stupidlyEncode(md.digest(buf));
-                            final Random r = new Random();
-                            r.nextBytes(buf);
-                            cookie = stupidlyEncode(md.digest(buf));
+                            CookieKeyring.Cookie own = null;
                             try {
-                                addCookie(context, "" + id, id / 1000, cookie);
+                                own = keyring.getOwn();
                             } catch (final IOException IOe) {
                                 if (AbstractConnection.EXCEPTION_DEBUG) {
                                     logger.error("Exception", IOe);
                                 }
                             }
+                            final String id;
+                            if (null != own) {
+                                // reuse the fresh cookie rather than rewriting the keyring
+                                id = own.id;
+                                cookie = own.value;
+                            } else {
+                                id = "" + now;
+                                final Random r = new Random();
+                                r.nextBytes(buf);
+                                cookie = stupidlyEncode(md.digest(buf));
+                                try {
+                                    keyring.add(id, now / 1000, cookie);
+                                } catch (final IOException IOe) {
+                                    if (AbstractConnection.EXCEPTION_DEBUG) {
+                                        logger.error("Exception", IOe);
+                                    }
+                                }
+                            }
                             logger.debug("Sending challenge: {} {} {}", context, id, challenge);
                             c.setResponse(stupidlyEncode(context + ' ' + id + ' ' + challenge));
                             return CONTINUE;
@@ -473,7 +418,7 @@ public class Transport {
                     final byte[] buf = md.digest(prehash.getBytes());
                     final String posthash = stupidlyEncode(buf);
                     logger.debug("Authenticating Hash; data={} remote hash={} local hash={}", prehash, hash, posthash);
-                    if (0 == col.compare(posthash, hash)) {
+                    if (posthash.equalsIgnoreCase(hash)) {
                         return OK;
                     } else {
                         return ERROR;
@@ -505,29 +450,62 @@ public class Transport {
         }
 
         /**
-         * performs SASL auth on the given streams.
-         * Mode selects whether to run as a SASL server or client.
-         * Types is a bitmask of the available auth types.
-         * Returns true if the auth was successful and false if it failed.
+         * Returns the uid of this process encoded for AUTH, or the user name if the uid is not available.
          */
-        public boolean auth(final int mode, final int types, final String guid, final OutputStream out,
-                final InputStream in, final UnixSocket us) throws IOException {
-            final String username = System.getProperty("user.name");
-            String Uid = null;
-            String kernelUid = null;
+        private String getUid() {
             try {
                 final Class<?> c = Class.forName("com.sun.security.auth.module.UnixSystem");
                 final Method m = c.getMethod("getUid");
                 final Object o = c.newInstance();
                 final long uid = (Long) m.invoke(o);
-                Uid = stupidlyEncode("" + uid);
+                return stupidlyEncode("" + uid);
             } catch (final Exception e) {
-                Uid = stupidlyEncode(username);
+                return stupidlyEncode(System.getProperty("user.name"));
+            }
+        }
+
+        /**
+         * Client fast path for EXTERNAL auth on a unix socket, from libunix-java or the JDK if us is null.
+         * Sends the nul byte and AUTH EXTERNAL straight away, without first asking the server for its mechanisms,
+         * which saves a round trip. If the server rejects EXTERNAL, the client goes on with the next mechanism the
+         * server offers, as in the full handshake.
+         * Returns true if the auth was successful and false if it failed.
+         */
+        public boolean authPipelined(final OutputStream out, final InputStream in, final UnixSocket us)
+                throws IOException {
+            if (null == us) {
+                // the peer takes our credentials from the socket
+                out.write(new byte[] { 0 });
+            } else {
+                us.sendCredentialByte((byte) 0);
             }
+            send(out, COMMAND_AUTH, "EXTERNAL", getUid());
+            return auth(MODE_CLIENT, AUTH_EXTERNAL, null, out, in, us, WAIT_DATA, AUTH_EXTERNAL);
+        }
+
+        /**
+         * performs SASL auth on the given streams.
+         * Mode selects whether to run as a SASL server or client.
+         * Types is a bitmask of the available auth types.
+         * Returns true if the auth was successful and false if it failed.
+         */
+        public boolean auth(final int mode, final int types, final String guid, final OutputStream out,
+                final InputStream in, final UnixSocket us) throws IOException {
+            return auth(mode, types, guid, out, in, us, INITIAL_STATE, 0);
+        }
+
+        /**
+         * performs SASL auth from the given state, with the given mechanism already tried.
+         */
+        private boolean auth(final int mode, final int types, final String guid, final OutputStream out,
+                final InputStream in, final UnixSocket us, final int initial, final int mechanism)
+                throws IOException {
+            final String Uid = getUid();
+            String kernelUid = null;
             Command c;
             int failed = 0;
-            int current = 0;
-            int state = INITIAL_STATE;
+            int current = mechanism;
+            int state = initial;
 
             while (state != AUTHENTICATED && state != FAILED) {
                 logger.trace("AUTH state: {}", state);
@@ -811,10 +789,45 @@ public class Transport {
         OutputStream out = null;
         InputStream in = null;
         UnixSocket us = null;
+        UnixSockets js = null;
         Socket s = null;
         int mode = 0;
         int types = 0;
-        if ("unix".equals(address.getType())) {
+        if ("inmem".equals(address.getType())) {
+            // no sockets and no auth, the peer is in this JVM
+            final InMemoryTransport.Endpoint e;
+            if (null != address.getParameter("listen")) {
+                final InMemoryTransport.Listener l = InMemoryTransport.listen(address.getParameter("name"));
+                try {
+                    e = l.accept();
+                } finally {
+                    l.close();
+                }
+            } else {
+                e = InMemoryTransport.connect(address.getParameter("name"));
+            }
+            min = e.min;
+            mout = e.mout;
+            return;
+        } else if ("unix".equals(address.getType()) && UnixSockets.isAvailable()
+                && null != address.getParameter("path")) {
+            // JDK sockets, which cannot bind abstract addresses
+            types = SASL.AUTH_EXTERNAL;
+            if (null != address.getParameter("listen")) {
+                mode = SASL.MODE_SERVER;
+                js = UnixSockets.accept(address.getParameter("path"));
+                final String peer = js.getPeerUser();
+                if (null != peer && !peer.equals(System.getProperty("user.name"))) {
+                    js.getOutputStream().close();
+                    throw new IOException(localize("Failed to auth"));
+                }
+            } else {
+                mode = SASL.MODE_CLIENT;
+                js = UnixSockets.connect(address.getParameter("path"));
+            }
+            in = js.getInputStream();
+            out = js.getOutputStream();
+        } else if ("unix".equals(address.getType())) {
             types = SASL.AUTH_EXTERNAL;
             if (null != address.getParameter("listen")) {
                 mode = SASL.MODE_SERVER;
@@ -858,7 +871,14 @@ public class Transport {
             throw new IOException(localize("unknown address type ") + address.getType());
         }
 
-        if (!new SASL().auth(mode, types, address.getParameter("guid"), out, in, us)) {
+        final SASL sasl = new SASL();
+        final boolean authed;
+        if (SASL_PIPELINING && SASL.MODE_CLIENT == mode && SASL.AUTH_EXTERNAL == types) {
+            authed = sasl.authPipelined(out, in, us);
+        } else {
+            authed = sasl.auth(mode, types, address.getParameter("guid"), out, in, us);
+        }
+        if (!authed) {
             out.close();
             throw new IOException(localize("Failed to auth"));
         }
@@ -870,6 +890,10 @@ public class Transport {
                 us.setSoTimeout(timeout);
             }
         }
+        if (null != js) {
+            logger.trace("Setting timeout to {} on Socket", timeout);
+            js.setTimeout(timeout);
+        }
         if (null != s) {
             logger.trace("Setting timeout to {} on Socket", timeout);
             s.setSoTimeout(timeout);
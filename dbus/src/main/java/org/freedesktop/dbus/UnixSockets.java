@@ -0,0 +1,57 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext.localize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Unix domain sockets of the JDK, without the native code of libunix-java.
+ * <p>
+ * They need Java 16. This version is used on older runtimes, where it is never available and the sockets of
+ * libunix-java are used instead. The multi-release jar replaces it on Java 16 and later.
+ * </p>
+ */
+final class UnixSockets {
+    static boolean isAvailable() {
+        return false;
+    }
+
+    static UnixSockets connect(final String path) throws IOException {
+        throw new IOException(localize("Unix sockets of the JDK need Java 16"));
+    }
+
+    static UnixSockets accept(final String path) throws IOException {
+        throw new IOException(localize("Unix sockets of the JDK need Java 16"));
+    }
+
+    private UnixSockets() {
+    }
+
+    void setTimeout(final int timeout) throws IOException {
+    }
+
+    InputStream getInputStream() {
+        return null;
+    }
+
+    OutputStream getOutputStream() {
+        return null;
+    }
+
+    String getPeerUser() {
+        return null;
+    }
+}
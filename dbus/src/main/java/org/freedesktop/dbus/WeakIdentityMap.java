@@ -0,0 +1,122 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A map comparing its keys by identity, which does not keep its keys alive.
+ * <p>
+ * Unlike a WeakHashMap, two keys which are equal but not the same object get separate entries, so an entry is only
+ * dropped when its own key is collected. The map is not synchronized.
+ * </p>
+ */
+class WeakIdentityMap<K, V> extends AbstractMap<K, V> {
+    /** Identity of a key, which does not keep the key alive */
+    private static class Key<K> extends WeakReference<K> {
+        private final int hash;
+
+        public Key(final K key, final ReferenceQueue<K> queue) {
+            super(key, queue);
+            hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Object key = get();
+            return null != key && key == ((Key<?>) o).get();
+        }
+    }
+
+    private final Map<Key<K>, V> map = new HashMap<>();
+    private final ReferenceQueue<K> collected = new ReferenceQueue<>();
+
+    private void expungeCollected() {
+        Reference<? extends K> r;
+        while (null != (r = collected.poll())) {
+            map.remove(r);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(final Object key) {
+        return map.get(new Key<>((K) key, null));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean containsKey(final Object key) {
+        return map.containsKey(new Key<>((K) key, null));
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        expungeCollected();
+        return map.put(new Key<>(key, collected), value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(final Object key) {
+        expungeCollected();
+        return map.remove(new Key<>((K) key, null));
+    }
+
+    @Override
+    public int size() {
+        expungeCollected();
+        return map.size();
+    }
+
+    @Override
+    public void clear() {
+        expungeCollected();
+        map.clear();
+    }
+
+    /**
+     * Returns a snapshot of the entries whose keys are still alive.
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        expungeCollected();
+        // keys may be equal without being the same, so the entries are kept apart by identity as well
+        final Set<Map.Entry<K, V>> entries = Collections.newSetFromMap(new IdentityHashMap<Map.Entry<K, V>, Boolean>());
+        for (final Map.Entry<Key<K>, V> e : map.entrySet()) {
+            final K key = e.getKey().get();
+            if (null != key) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(key, e.getValue()));
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,385 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.util.LinkedList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of worker threads with its own queue.
+ * <p>
+ * A connection runs method calls, signal handlers and callbacks on separate pools, so that a slow handler in one of
+ * them cannot starve the work queued in another. Each pool keeps simple counters which can be used for monitoring.
+ * </p>
+ * <p>
+ * A worker which blocks waiting for the reply to a synchronous call tells its pool, which starts a spare thread if no
+ * other worker is idle. Nested calls between peers therefore cannot use up all workers of a pool.
+ * </p>
+ */
+public class WorkerPool {
+    private final Logger logger = LoggerFactory.getLogger(WorkerPool.class);
+
+    private class _workerthread extends Thread {
+        private boolean _run = true;
+
+        public _workerthread() {
+            setName("DBus Worker (" + name + ")");
+        }
+
+        WorkerPool getPool() {
+            return WorkerPool.this;
+        }
+
+        public void halt() {
+            _run = false;
+        }
+
+        @Override
+        public void run() {
+            while (_run) {
+                Runnable r = null;
+                synchronized (runnables) {
+                    while (runnables.size() == 0 && _run) {
+                        try {
+                            runnables.wait();
+                        } catch (final InterruptedException Ie) {
+                        }
+                    }
+                    if (runnables.size() > 0) {
+                        r = runnables.removeFirst();
+                        active++;
+                    }
+                }
+                if (null != r) {
+                    runTask(r);
+                }
+            }
+        }
+    }
+
+    private final String name;
+    private final LinkedList<Runnable> runnables = new LinkedList<>();
+    private final LinkedList<_workerthread> workers = new LinkedList<>();
+    private final LinkedList<_workerthread> spares = new LinkedList<>();
+    private int queuelimit;
+    private int maxspares = 32;
+    private int blocked = 0;
+    private int active = 0;
+    private int largest = 0;
+    private long submitted = 0;
+    private long completed = 0;
+    private long rejected = 0;
+
+    /**
+     * Create a new pool and start its threads.
+     *
+     * @param name The name of the pool, used for thread names and logging.
+     * @param threads The number of worker threads.
+     * @param queuelimit The maximum number of queued tasks, or 0 for no limit.
+     */
+    public WorkerPool(final String name, final int threads, final int queuelimit) {
+        this.name = name;
+        this.queuelimit = queuelimit;
+        setThreadCount(threads);
+    }
+
+    private void runTask(final Runnable r) {
+        try {
+            r.run();
+        } catch (final RuntimeException Re) {
+            if (AbstractConnection.EXCEPTION_DEBUG) {
+                logger.error("Exception", Re);
+            }
+        } finally {
+            synchronized (runnables) {
+                active--;
+                completed++;
+                runnables.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Queue a task on this pool.
+     *
+     * @param r The task to run.
+     * @return false if the task was rejected because the queue is full or the pool has been stopped.
+     */
+    boolean execute(final Runnable r) {
+        synchronized (runnables) {
+            if (0 == workers.size() || 0 != queuelimit && runnables.size() >= queuelimit) {
+                rejected++;
+                logger.debug("Rejecting task on pool {}; {} tasks queued", name, runnables.size());
+                return false;
+            }
+            runnables.add(r);
+            submitted++;
+            if (runnables.size() > largest) {
+                largest = runnables.size();
+            }
+            runnables.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Returns the pool the calling thread is a worker of, or null if it is not a worker thread.
+     */
+    static WorkerPool getCurrentPool() {
+        if (Thread.currentThread() instanceof _workerthread) {
+            return ((_workerthread) Thread.currentThread()).getPool();
+        }
+        return null;
+    }
+
+    /**
+     * Called by a worker of this pool before it blocks waiting for another task to finish.
+     * Starts a spare worker if no other worker is idle, so queued tasks can still run.
+     *
+     * @return The spare worker started for this call, to be passed to {@link #endBlocking(Thread)}, or null.
+     */
+    Thread beginBlocking() {
+        synchronized (runnables) {
+            blocked++;
+            if (workers.size() + spares.size() <= active && spares.size() < maxspares && 0 != workers.size()) {
+                final _workerthread t = new _workerthread();
+                t.start();
+                spares.add(t);
+                logger.debug("Started spare worker on pool {}; {} workers blocked", name, blocked);
+                return t;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Called by a worker of this pool when it stops blocking. Retires the spare worker started when it began
+     * blocking, if any, once that spare has finished its current task.
+     *
+     * @param spare The spare worker returned by {@link #beginBlocking()}, or null.
+     */
+    void endBlocking(final Thread spare) {
+        synchronized (runnables) {
+            blocked--;
+            if (null != spare && spares.remove(spare)) {
+                ((_workerthread) spare).halt();
+                runnables.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until all queued tasks have been started, then stop all workers.
+     * If called from one of this pool's own workers the remaining tasks are run on the calling thread.
+     */
+    void shutdown() {
+        final boolean own = Thread.currentThread() instanceof _workerthread
+                && ((_workerthread) Thread.currentThread()).getPool() == this;
+        while (true) {
+            Runnable r = null;
+            synchronized (runnables) {
+                if (runnables.size() == 0) {
+                    break;
+                }
+                if (own) {
+                    r = runnables.removeFirst();
+                    active++;
+                } else {
+                    try {
+                        runnables.wait(100);
+                    } catch (final InterruptedException Ie) {
+                    }
+                }
+            }
+            if (null != r) {
+                runTask(r);
+            }
+        }
+        synchronized (runnables) {
+            for (final _workerthread t : workers) {
+                t.halt();
+            }
+            for (final _workerthread t : spares) {
+                t.halt();
+            }
+            workers.clear();
+            spares.clear();
+            runnables.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the name of this pool.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Change the number of worker threads in this pool.
+     *
+     * @param newcount The new number of worker threads to use.
+     */
+    public void setThreadCount(final int newcount) {
+        synchronized (runnables) {
+            if (workers.size() > newcount) {
+                final int n = workers.size() - newcount;
+                for (int i = 0; i < n; i++) {
+                    final _workerthread t = workers.removeFirst();
+                    t.halt();
+                }
+                runnables.notifyAll();
+            } else if (workers.size() < newcount) {
+                final int n = newcount - workers.size();
+                for (int i = 0; i < n; i++) {
+                    final _workerthread t = new _workerthread();
+                    t.start();
+                    workers.add(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of worker threads in this pool.
+     */
+    public int getThreadCount() {
+        synchronized (runnables) {
+            return workers.size();
+        }
+    }
+
+    /**
+     * Set the maximum number of tasks which may wait in the queue of this pool.
+     * Further tasks are rejected: method calls are answered with a LimitsExceeded error, signals and callbacks are
+     * dropped.
+     *
+     * @param queuelimit The new limit, or 0 for no limit.
+     */
+    public void setQueueLimit(final int queuelimit) {
+        synchronized (runnables) {
+            this.queuelimit = queuelimit;
+        }
+    }
+
+    /**
+     * Returns the maximum number of queued tasks, or 0 if there is no limit.
+     */
+    public int getQueueLimit() {
+        synchronized (runnables) {
+            return queuelimit;
+        }
+    }
+
+    /**
+     * Set the maximum number of spare threads started while workers are blocked on nested calls.
+     *
+     * @param maxspares The new limit, 0 to disable spare threads.
+     */
+    public void setMaxSpareThreads(final int maxspares) {
+        synchronized (runnables) {
+            this.maxspares = maxspares;
+        }
+    }
+
+    /**
+     * Returns the maximum number of spare threads.
+     */
+    public int getMaxSpareThreads() {
+        synchronized (runnables) {
+            return maxspares;
+        }
+    }
+
+    /**
+     * Returns the number of workers currently blocked waiting for the reply to a call.
+     */
+    public int getBlockedCount() {
+        synchronized (runnables) {
+            return blocked;
+        }
+    }
+
+    /**
+     * Returns the number of spare workers currently running for blocked workers.
+     */
+    public int getSpareCount() {
+        synchronized (runnables) {
+            return spares.size();
+        }
+    }
+
+    /**
+     * Returns the number of tasks currently waiting for a worker.
+     */
+    public int getQueueSize() {
+        synchronized (runnables) {
+            return runnables.size();
+        }
+    }
+
+    /**
+     * Returns the largest number of tasks which have been waiting at the same time.
+     */
+    public int getLargestQueueSize() {
+        synchronized (runnables) {
+            return largest;
+        }
+    }
+
+    /**
+     * Returns the number of tasks currently running.
+     */
+    public int getActiveCount() {
+        synchronized (runnables) {
+            return active;
+        }
+    }
+
+    /**
+     * Returns the number of tasks which have been accepted by this pool.
+     */
+    public long getSubmittedCount() {
+        synchronized (runnables) {
+            return submitted;
+        }
+    }
+
+    /**
+     * Returns the number of tasks which have finished running.
+     */
+    public long getCompletedCount() {
+        synchronized (runnables) {
+            return completed;
+        }
+    }
+
+    /**
+     * Returns the number of tasks which have been rejected because the queue was full.
+     */
+    public long getRejectedCount() {
+        synchronized (runnables) {
+            return rejected;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (runnables) {
+            return "WorkerPool(" + name + ", threads=" + workers.size() + ", spares=" + spares.size() + ", active="
+                    + active + ", blocked=" + blocked + ", queued=" + runnables.size() + ", largest=" + largest
+                    + ", submitted=" + submitted + ", completed=" + completed + ", rejected=" + rejected + ")";
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * Unix domain sockets of the JDK, without the native code of libunix-java.
+ * <p>
+ * Messages are written with gathering writes on the channel, and the peer credentials come from SO_PEERCRED
+ * where the platform supports it. Once a timeout is set, the channel is non-blocking and reads wait on a selector,
+ * so they time out like reads from the sockets of libunix-java with SO_TIMEOUT.
+ * </p>
+ */
+final class UnixSockets {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnixSockets.class);
+
+    static boolean isAvailable() {
+        return true;
+    }
+
+    static UnixSockets connect(final String path) throws IOException {
+        final SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(path));
+        } catch (final IOException IOe) {
+            channel.close();
+            throw IOe;
+        }
+        LOGGER.debug("Connected to {} with JDK unix sockets", path);
+        return new UnixSockets(channel);
+    }
+
+    static UnixSockets accept(final String path) throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(path));
+            return new UnixSockets(server.accept());
+        }
+    }
+
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+    /** Milliseconds a read waits for data, 0 to wait without a limit, 1 not to wait at all */
+    private volatile int timeout = 0;
+    private Selector readable;
+    private Selector writable;
+
+    private UnixSockets(final SocketChannel channel) {
+        this.channel = channel;
+        in = new ChannelInputStream();
+        out = new ChannelOutputStream();
+    }
+
+    /**
+     * Set how long a read waits for data, with the meaning the transport gives it on the sockets of libunix-java:
+     * 0 waits without a limit, 1 does not wait at all, and other values wait that long. A read which gets no data
+     * throws a SocketTimeoutException.
+     */
+    void setTimeout(final int timeout) throws IOException {
+        if (0 != timeout && null == readable) {
+            readable = Selector.open();
+            writable = Selector.open();
+            channel.configureBlocking(false);
+            channel.register(readable, SelectionKey.OP_READ);
+            channel.register(writable, SelectionKey.OP_WRITE);
+        }
+        this.timeout = timeout;
+    }
+
+    InputStream getInputStream() {
+        return in;
+    }
+
+    OutputStream getOutputStream() {
+        return out;
+    }
+
+    /**
+     * Returns the user at the other end according to SO_PEERCRED, or null if the platform does not tell.
+     */
+    String getPeerUser() {
+        try {
+            if (channel.supportedOptions().contains(ExtendedSocketOptions.SO_PEERCRED)) {
+                return channel.getOption(ExtendedSocketOptions.SO_PEERCRED).user().getName();
+            }
+        } catch (final IOException | UnsupportedOperationException e) {
+            if (AbstractConnection.EXCEPTION_DEBUG) {
+                LOGGER.error("Exception", e);
+            }
+        }
+        return null;
+    }
+
+    private void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (null != readable) {
+                readable.close();
+                writable.close();
+            }
+        }
+    }
+
+    /** Reads from the channel, waiting for data on a selector once the channel is non-blocking */
+    private class ChannelInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return 1 == read(b, 0, 1) ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
+            final ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+            while (true) {
+                final int rv = channel.read(bb);
+                if (0 != rv || null == readable) {
+                    return rv;
+                }
+                // no data yet: a buffered reader would take 0 for the end of the stream, so time out instead
+                final int wait = timeout;
+                if (1 == wait || 0 == readable.select(wait) && 0 != wait) {
+                    throw new SocketTimeoutException();
+                }
+                readable.selectedKeys().clear();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            UnixSockets.this.close();
+        }
+    }
+
+    /** Writes straight to the channel, several buffers at a time */
+    private class ChannelOutputStream extends OutputStream implements MessageWriter.GatheringOutput {
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            final ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+            while (bb.hasRemaining()) {
+                if (0 == channel.write(bb)) {
+                    awaitWritable();
+                }
+            }
+        }
+
+        @Override
+        public void write(final byte[][] bufs) throws IOException {
+            final ByteBuffer[] bbs = new ByteBuffer[bufs.length];
+            long remaining = 0;
+            for (int i = 0; i < bufs.length; i++) {
+                bbs[i] = ByteBuffer.wrap(bufs[i]);
+                remaining += bufs[i].length;
+            }
+            while (remaining > 0) {
+                final long n = channel.write(bbs);
+                if (0 == n) {
+                    awaitWritable();
+                }
+                remaining -= n;
+            }
+        }
+
+        /** A non-blocking channel writes nothing while the buffer of the socket is full */
+        private void awaitWritable() throws IOException {
+            if (null != writable) {
+                writable.select();
+                writable.selectedKeys().clear();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            UnixSockets.this.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of the cached view of a cookie keyring, in a home directory of its own.
+ */
+public class CookieKeyringTest {
+    private static String home;
+    private static File keydir;
+    private static int contexts = 0;
+
+    @BeforeClass
+    public static void setUpHome() throws IOException {
+        home = System.getProperty("user.home");
+        final File dir = Files.createTempDirectory("dbus-keyrings").toFile();
+        System.setProperty("user.home", dir.getPath());
+        keydir = new File(dir, ".dbus-keyrings");
+    }
+
+    @AfterClass
+    public static void restoreHome() {
+        System.setProperty("user.home", home);
+    }
+
+    /** Returns a context no other test uses, since keyrings are kept for the life of the JVM */
+    private static String context(final String name) {
+        return name + "_" + contexts++;
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /** Write the keyring file behind the back of the cache, with a new modification time */
+    private static void write(final String context, final String... lines) throws IOException {
+        final File file = new File(keydir, context);
+        final long modified = Math.max(file.lastModified(), System.currentTimeMillis());
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(modified + 2000));
+    }
+
+    @Test
+    public void testAddAndFind() throws Exception {
+        final String context = context("add");
+        final CookieKeyring k = CookieKeyring.get(context);
+        assertNull(k.find("1"));
+        assertNull(k.getOwn());
+        final long now = now();
+        k.add("1", now, "cafe");
+        assertEquals("cafe", k.find("1"));
+        assertNotNull(k.getOwn());
+        assertEquals("1", k.getOwn().id);
+        assertNull(k.find("2"));
+        assertFalse("Lock left behind", new File(keydir, context + ".lock").exists());
+    }
+
+    @Test
+    public void testChangedFileIsRead() throws Exception {
+        final String context = context("changed");
+        final CookieKeyring k = CookieKeyring.get(context);
+        k.add("1", now(), "cafe");
+        assertEquals("cafe", k.find("1"));
+        write(context, "2 " + now() + " beef");
+        assertNull(k.find("1"));
+        assertEquals("beef", k.find("2"));
+        // our own cookie is gone from the file, so a new one must be added
+        assertNull(k.getOwn());
+    }
+
+    @Test
+    public void testStaleCookiesIgnoredAndExpired() throws Exception {
+        final String context = context("stale");
+        final CookieKeyring k = CookieKeyring.get(context);
+        final long old = now() - Transport.SASL.EXPIRE_KEYS_TIMEOUT_SECONDS - 10;
+        final long future = now() + Transport.SASL.MAX_TIME_TRAVEL_SECONDS + 60;
+        keydir.mkdirs();
+        write(context, "1 " + old + " dead", "2 " + future + " f00d", "invalid line", "3 x beef");
+        assertNull(k.find("1"));
+        assertNull(k.find("2"));
+        assertNull(k.find("3"));
+        // adding rewrites the keyring without the cookies which are too old
+        k.add("4", now(), "cafe");
+        final List<String> lines = Files.readAllLines(new File(keydir, context).toPath(), StandardCharsets.UTF_8);
+        for (final String line : lines) {
+            assertFalse("Stale cookie kept: " + line, line.startsWith("1 "));
+        }
+        assertEquals("cafe", k.find("4"));
+    }
+
+    @Test(timeout = 10000)
+    public void testStaleLockTakenOver() throws Exception {
+        final String context = context("locked");
+        final CookieKeyring k = CookieKeyring.get(context);
+        keydir.mkdirs();
+        final File lock = new File(keydir, context + ".lock");
+        assertTrue(lock.createNewFile());
+        final long start = System.currentTimeMillis();
+        k.add("1", now(), "cafe");
+        assertTrue("Lock not waited for", System.currentTimeMillis() - start >= Transport.SASL.LOCK_TIMEOUT);
+        assertEquals("cafe", k.find("1"));
+        assertFalse("Lock left behind", lock.exists());
+    }
+}
@@ -0,0 +1,187 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the framing of messages passed between peers in the same JVM.
+ */
+public class InMemoryTransportTest {
+    private static int names = 0;
+
+    private InMemoryTransport.Listener listener;
+    private InMemoryTransport.Endpoint client;
+    private InMemoryTransport.Endpoint server;
+
+    @Before
+    public void setUp() throws IOException {
+        listener = InMemoryTransport.listen("InMemoryTransportTest" + names++);
+        client = InMemoryTransport.connect(listener.getName());
+        server = listener.accept();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        listener.close();
+        client.mout.close();
+        server.mout.close();
+    }
+
+    /** A call whose header and body lengths vary with n, so every padding is hit */
+    private static MethodCall call(final int n) throws DBusException {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return new MethodCall("org.example.Dest" + n % 8, "/org/example/" + sb.substring(0, Math.min(n, 9)),
+                "org.example.Iface", "M" + sb.substring(0, n % 7), (byte) 0, "sus", sb.toString(), new UInt32(n),
+                Integer.toString(n));
+    }
+
+    private static void assertSameCall(final MethodCall expected, final Message actual) throws DBusException {
+        assertTrue("Not a call: " + actual, actual instanceof MethodCall);
+        assertEquals(expected.getSerial(), actual.getSerial());
+        assertEquals(expected.getDestination(), actual.getDestination());
+        assertEquals(expected.getPath(), actual.getPath());
+        assertEquals(expected.getInterface(), actual.getInterface());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getSig(), actual.getSig());
+        assertArrayEquals(expected.getParameters(), actual.getParameters());
+    }
+
+    @Test(timeout = 10000)
+    public void testMessagesArriveInOrderAndIntact() throws Exception {
+        final List<MethodCall> sent = new ArrayList<>();
+        for (int n = 0; n < 64; n++) {
+            final MethodCall m = call(n);
+            sent.add(m);
+            client.mout.writeMessage(m, 0 == n % 3);
+        }
+        // a body far larger than any buffer
+        final MethodCall large = call(1 << 18);
+        sent.add(large);
+        client.mout.writeMessage(large, true);
+        for (final MethodCall m : sent) {
+            assertSameCall(m, server.min.readMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testReplyInOtherDirection() throws Exception {
+        final MethodCall m = call(5);
+        client.mout.writeMessage(m, true);
+        final Message received = server.min.readMessage();
+        server.mout.writeMessage(new MethodReturn("org.example.Dest", (MethodCall) received, "s", "reply"), true);
+        final Message reply = client.min.readMessage();
+        assertTrue(reply instanceof MethodReturn);
+        assertEquals(m.getSerial(), reply.getReplySerial());
+        assertArrayEquals(new Object[] { "reply" }, reply.getParameters());
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentWritersKeepFramesWhole() throws Exception {
+        final int writers = 4;
+        final int count = 250;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int first = w * count;
+            final Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = first; n < first + count; n++) {
+                            client.mout.writeMessage(call(n % 100), true);
+                        }
+                    } catch (final Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        final Set<Long> serials = new HashSet<>();
+        for (int i = 0; i < writers * count; i++) {
+            final Message m = server.min.readMessage();
+            assertEquals("sus", m.getSig());
+            final Object[] args = m.getParameters();
+            assertEquals(((UInt32) args[1]).longValue(), Long.parseLong((String) args[2]));
+            assertTrue("Message received twice", serials.add(m.getSerial()));
+        }
+        for (final Thread t : threads) {
+            t.join();
+        }
+        if (null != error.get()) {
+            throw new AssertionError(error.get());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testEndOfStreamOnClose() throws Exception {
+        final MethodCall m = call(1);
+        client.mout.writeMessage(m, true);
+        client.mout.close();
+        // frames written before the close are still delivered
+        assertSameCall(m, server.min.readMessage());
+        try {
+            server.min.readMessage();
+            fail("Read after the peer closed its end");
+        } catch (final EOFException EOFe) {
+        }
+        try {
+            client.mout.writeMessage(call(2), true);
+            fail("Write after close");
+        } catch (final EOFException EOFe) {
+        }
+    }
+
+    @Test
+    public void testNames() throws Exception {
+        try {
+            InMemoryTransport.listen(listener.getName());
+            fail("Two listeners on one name");
+        } catch (final IOException IOe) {
+        }
+        listener.close();
+        try {
+            InMemoryTransport.connect(listener.getName());
+            fail("Connected to a closed listener");
+        } catch (final IOException IOe) {
+        }
+        try {
+            listener.accept();
+            fail("Accepted on a closed listener");
+        } catch (final EOFException EOFe) {
+        }
+        // the name is free again
+        InMemoryTransport.listen(listener.getName()).close();
+    }
+}
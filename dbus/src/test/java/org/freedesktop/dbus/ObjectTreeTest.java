@@ -0,0 +1,192 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the tree of exported objects: lookups, fallbacks, the reverse index and concurrent changes.
+ */
+public class ObjectTreeTest {
+    private static class PeerObject implements DBus.Peer {
+        @Override
+        public boolean isRemote() {
+            return false;
+        }
+
+        @Override
+        public void Ping() {
+        }
+    }
+
+    private ObjectTree tree;
+
+    @Before
+    public void setUp() {
+        tree = new ObjectTree();
+    }
+
+    private static ExportedObject export(final DBusInterface object) throws DBusException {
+        return new ExportedObject(object, false);
+    }
+
+    @Test
+    public void testAddGetRemove() throws Exception {
+        final ExportedObject eo = export(new PeerObject());
+        assertTrue(tree.add("/a/b", eo));
+        assertFalse("Second object added on the same path", tree.add("/a/b", export(new PeerObject())));
+        assertSame(eo, tree.get("/a/b"));
+        assertNull(tree.get("/a"));
+        assertNull(tree.get("/a/b/c"));
+        assertSame(eo, tree.remove("/a/b"));
+        assertNull(tree.get("/a/b"));
+        assertNull(tree.remove("/a/b"));
+        // the empty nodes on the way are gone
+        assertNull(tree.Introspect("/a"));
+        assertEquals("", tree.toString());
+    }
+
+    @Test
+    public void testRemoveOnlyGivenObject() throws Exception {
+        final ExportedObject eo = export(new PeerObject());
+        assertTrue(tree.add("/a", eo));
+        assertNull(tree.remove("/a", export(new PeerObject())));
+        assertSame(eo, tree.get("/a"));
+        assertSame(eo, tree.remove("/a", eo));
+        assertNull(tree.get("/a"));
+    }
+
+    @Test
+    public void testFallbackOnLongestPrefix() throws Exception {
+        final ExportedObject root = export(new PeerObject());
+        final ExportedObject deep = export(new PeerObject());
+        tree.addFallback("/", root);
+        tree.addFallback("/a/b", deep);
+        assertSame(deep, tree.getFallback("/a/b"));
+        assertSame(deep, tree.getFallback("/a/b/c/d"));
+        assertSame(root, tree.getFallback("/a"));
+        assertSame(root, tree.getFallback("/a/x/b"));
+        tree.removeFallback("/a/b");
+        assertSame(root, tree.getFallback("/a/b/c"));
+        tree.removeFallback("/");
+        assertNull(tree.getFallback("/a/b/c"));
+    }
+
+    @Test
+    public void testPathsOfObject() throws Exception {
+        final PeerObject object = new PeerObject();
+        final ExportedObject eo = export(object);
+        tree.add("/y", eo);
+        tree.add("/x", eo);
+        assertEquals(new HashSet<>(Arrays.asList("/x", "/y")), tree.getPaths(object));
+        assertEquals("/x", tree.getPath(object));
+        assertTrue(tree.getPaths(new PeerObject()).isEmpty());
+        tree.remove("/x");
+        assertEquals("/y", tree.getPath(object));
+        tree.remove("/y");
+        assertNull(tree.getPath(object));
+        assertTrue(tree.getPaths(object).isEmpty());
+    }
+
+    @Test
+    public void testChildren() throws Exception {
+        for (final String path : new String[] { "/p", "/p/a", "/p/a/b", "/q" }) {
+            tree.add(path, export(new PeerObject()));
+        }
+        assertEquals(Arrays.asList("/p/a", "/p/a/b"), new ArrayList<>(tree.getChildren("/p").keySet()));
+        assertEquals(Arrays.asList("/p", "/p/a", "/p/a/b", "/q"), new ArrayList<>(tree.getChildren("/").keySet()));
+        assertTrue(tree.getChildren("/none").isEmpty());
+    }
+
+    @Test
+    public void testIntrospectionCachedUntilChange() throws Exception {
+        tree.add("/r", export(new PeerObject()));
+        final String before = tree.Introspect("/");
+        assertSame(before, tree.Introspect("/"));
+        tree.add("/s", export(new PeerObject()));
+        final String after = tree.Introspect("/");
+        assertNotSame(before, after);
+        assertTrue(after.contains("<node name=\"s\"/>"));
+        tree.remove("/s");
+        assertFalse(tree.Introspect("/").contains("<node name=\"s\"/>"));
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentAddRemove() throws Exception {
+        final int threads = 8;
+        final int paths = 200;
+        final ExportedObject eo = export(new PeerObject());
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int n = t;
+            final Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int round = 0; round < 5; round++) {
+                            // all threads share the nodes near the root, which are pruned and created again
+                            for (int i = 0; i < paths; i++) {
+                                final String path = "/c/" + i % 4 + "/" + n + "/" + i;
+                                if (!tree.add(path, eo)) {
+                                    throw new AssertionError("Not added: " + path);
+                                }
+                            }
+                            for (int i = 0; i < paths; i++) {
+                                final String path = "/c/" + i % 4 + "/" + n + "/" + i;
+                                if (eo != tree.get(path)) {
+                                    throw new AssertionError("Lost: " + path);
+                                }
+                                if (eo != tree.remove(path)) {
+                                    throw new AssertionError("Not removed: " + path);
+                                }
+                            }
+                        }
+                    } catch (final Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        if (null != error.get()) {
+            throw new AssertionError(error.get());
+        }
+        assertTrue(tree.getChildren("/").isEmpty());
+        assertTrue(tree.getPaths(eo.object.get()).isEmpty());
+        assertEquals("", tree.toString());
+    }
+}
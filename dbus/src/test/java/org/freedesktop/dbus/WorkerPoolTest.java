@@ -0,0 +1,155 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+
+package org.freedesktop.dbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of the spare workers a pool starts while its workers are blocked on nested calls.
+ */
+public class WorkerPoolTest {
+    private WorkerPool pool;
+
+    @After
+    public void tearDown() {
+        if (null != pool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Queue a task which blocks like a worker waiting for the reply to a nested call, until the latch opens.
+     */
+    private void block(final CountDownLatch started, final CountDownLatch release, final CountDownLatch done) {
+        assertTrue(pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                final WorkerPool p = WorkerPool.getCurrentPool();
+                final Thread spare = p.beginBlocking();
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException Ie) {
+                } finally {
+                    p.endBlocking(spare);
+                    done.countDown();
+                }
+            }
+        }));
+    }
+
+    private CountDownLatch run() {
+        final CountDownLatch ran = new CountDownLatch(1);
+        assertTrue(pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }));
+        return ran;
+    }
+
+    private void awaitSpares(final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (count != pool.getSpareCount() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, pool.getSpareCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testSpareRunsQueuedTasks() throws Exception {
+        pool = new WorkerPool("test", 1, 0);
+        assertNull(WorkerPool.getCurrentPool());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        block(started, release, done);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, pool.getBlockedCount());
+        assertEquals(1, pool.getSpareCount());
+        assertTrue("Task not run while the only worker is blocked", run().await(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        awaitSpares(0);
+        assertEquals(0, pool.getBlockedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testNoSpareWhileAWorkerIsIdle() throws Exception {
+        pool = new WorkerPool("test", 2, 0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        block(started, release, done);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(0, pool.getSpareCount());
+        assertTrue(run().await(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void testNestedBlockingRetiresOwnSpare() throws Exception {
+        pool = new WorkerPool("test", 1, 0);
+        final CountDownLatch outerstarted = new CountDownLatch(1);
+        final CountDownLatch outerrelease = new CountDownLatch(1);
+        final CountDownLatch outerdone = new CountDownLatch(1);
+        block(outerstarted, outerrelease, outerdone);
+        assertTrue(outerstarted.await(5, TimeUnit.SECONDS));
+        // runs on the spare started for the first task, and blocks it in turn
+        final CountDownLatch innerstarted = new CountDownLatch(1);
+        final CountDownLatch innerrelease = new CountDownLatch(1);
+        final CountDownLatch innerdone = new CountDownLatch(1);
+        block(innerstarted, innerrelease, innerdone);
+        assertTrue(innerstarted.await(5, TimeUnit.SECONDS));
+        assertEquals(2, pool.getBlockedCount());
+        assertEquals(2, pool.getSpareCount());
+
+        outerrelease.countDown();
+        assertTrue(outerdone.await(5, TimeUnit.SECONDS));
+        // only the spare started for the first task retires, the one standing in for the second stays
+        awaitSpares(1);
+        assertTrue(run().await(5, TimeUnit.SECONDS));
+
+        innerrelease.countDown();
+        assertTrue(innerdone.await(5, TimeUnit.SECONDS));
+        awaitSpares(0);
+        assertEquals(0, pool.getBlockedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testSpareLimit() throws Exception {
+        pool = new WorkerPool("test", 1, 0);
+        pool.setMaxSpareThreads(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        block(started, release, done);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(0, pool.getSpareCount());
+        final CountDownLatch ran = run();
+        assertFalse("Task run without a free worker", ran.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}